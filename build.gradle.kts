@@ -2,6 +2,7 @@ plugins {
 	java
 	application
 	alias(libs.plugins.shadow)
+	alias(libs.plugins.jmh)
 }
 
 buildscript {
@@ -28,11 +29,19 @@ repositories {
 
 dependencies {
 	implementation(libs.bundles.commons)
+	implementation(libs.bundles.compression)
 	implementation(libs.bundles.utils)
 	implementation(libs.bundles.logger)
 	annotationProcessor(libs.bundles.annotations)
 }
 
+jmh {
+	jmhVersion = libs.versions.jmh
+
+	// Allocation rates, as most regressions here are something new landing on the heap.
+	profilers = listOf("gc")
+}
+
 tasks {
 	shadowJar {
 		mergeServiceFiles()
@@ -63,9 +72,7 @@ tasks {
 		dontwarn("org.objectweb.**")
 		dontwarn("org.apache.commons.compress.harmony.pack200.**")
 
-		// We currently don't expose these.
-		dontwarn("org.tukaani.**")
-		dontwarn("com.github.luben.zstd.**")
+		// We currently don't expose this.
 		dontwarn("org.brotli.**")
 
 		// Proguard bug - polymorphic bytecode is here
@@ -84,6 +91,10 @@ tasks {
 		// Stuff ShadowJar likes killing and should not be killed.
 		keep("public class ch.qos.logback.classic.spi.LogbackServiceProvider {}")
 
+		// Native code reaches back into these, which ProGuard can't see.
+		keep("class com.github.luben.zstd.** { *; }")
+		keep("class net.jpountz.** { *; }")
+
 		// Proguard turns your logger into ghosts.
 		// If for whatever reason anyone else in the future needs this, this may be helpful:
 		//
@@ -102,11 +113,17 @@ tasks {
 		// I've had problems in the past with this.
 		keepclassmembers(mapOf("allowoptimization" to false), "enum * { public static **[] values(); public static ** valueOf(java.lang.String); }")
 
+		// JFR reads event fields reflectively, and by name.
+		keep("class * extends jdk.jfr.Event { *; }")
+
 		// picocli requires this
 		keepattributes("*Annotation*")
 
 		keepclassmembers(mapOf("allowoptimization" to false), "class picocli.CommandLine\$AutoHelpMixin { private boolean *; }")
 
+		// picocli instantiates converters reflectively
+		keep("class * implements picocli.CommandLine\$ITypeConverter { <init>(); }")
+
 		// It helps if you keep this...
 		keep(
 			"""
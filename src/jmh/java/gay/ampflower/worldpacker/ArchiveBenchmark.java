@@ -0,0 +1,63 @@
+package gay.ampflower.worldpacker;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Archives a {@link WorldTree} held in memory with every format, so that only the writing is measured.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ArchiveBenchmark {
+	// ar is missing, as it can't take names past 16 characters, which hardly any path in a world fits in.
+	@Param({"cpio", "tar", "zip", "dedup_zip", "java_zip"})
+	public Archive archive;
+
+	// Only the zips pay any attention to this.
+	@Param({"0", "6"})
+	public int level;
+
+	@Param({"32"})
+	public int regions;
+
+	private List<Holder> holders;
+
+	@Setup
+	public void setup() {
+		holders = WorldTree.holders(WorldTree.generate(0x5EED, regions, (int) Utils.MiB));
+	}
+
+	/**
+	 * @return The size of the archive, so that it isn't thrown away.
+	 */
+	@Benchmark
+	public long archive() throws IOException {
+		final var output = new CountingOutputStream(OutputStream.nullOutputStream());
+		archive.toArchiver(level).archive(output, Path.of("."), holders, Order.size, new AtomicInteger());
+		return output.getByteCount();
+	}
+}
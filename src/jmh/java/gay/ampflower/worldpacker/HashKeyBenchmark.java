@@ -0,0 +1,123 @@
+package gay.ampflower.worldpacker;
+
+import gay.ampflower.worldpacker.io.HashAlgorithm;
+import gay.ampflower.worldpacker.io.HashIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Everything the reader does with a hash once it has one: hashing the bytes, holding onto the result,
+ * then looking it up against every other.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class HashKeyBenchmark {
+	// Around what a small region comes out to.
+	private static final int size = 64 * 1024;
+
+	@Param({"xxh64", "sha256"})
+	public HashAlgorithm algorithm;
+
+	private HashAlgorithm.Hasher hasher;
+	private ByteBuffer input;
+
+	private byte[] hash;
+	private HashKey holder;
+	private HashKey equal;
+	private HashKey[] holders;
+	private EntryPath path;
+
+	@Setup
+	public void setup() {
+		final var random = new SplittableRandom(0x5EED);
+
+		hasher = algorithm.newHasher();
+		final var bytes = new byte[size];
+		random.nextBytes(bytes);
+		input = ByteBuffer.allocateDirect(size).put(bytes).flip();
+
+		holder = digest();
+		hash = holder.hash();
+		equal = new HashKey(hash.clone());
+
+		path = EntryPath.of("region/r.0.0.mca");
+
+		holders = new HashKey[4096];
+		final var buffer = new byte[32];
+		for (int i = 0; i < holders.length; i++) {
+			random.nextBytes(buffer);
+			holders[i] = new HashKey(buffer);
+		}
+	}
+
+	@Benchmark
+	public HashKey digest() {
+		hasher.reset();
+		hasher.update(input.clear());
+		return hasher.key();
+	}
+
+	@Benchmark
+	public HashKey construct() {
+		return new HashKey(hash);
+	}
+
+	@Benchmark
+	public byte[] toBytes() {
+		return holder.hash();
+	}
+
+	@Benchmark
+	public int compare() {
+		return holder.compareTo(equal);
+	}
+
+	@Benchmark
+	public boolean equal() {
+		return holder.equals(equal);
+	}
+
+	/**
+	 * Filling a map as the reader does, one holder per file.
+	 */
+	@Benchmark
+	public void insert(final Blackhole blackhole) {
+		final var map = new HashMap<HashKey, HashKey>(holders.length * 2);
+		for (final var holder : holders) {
+			blackhole.consume(map.putIfAbsent(holder, holder));
+		}
+	}
+
+	/**
+	 * Filling the index the reader actually uses, one holder per file.
+	 */
+	@Benchmark
+	public void insertIndex(final Blackhole blackhole) {
+		final var index = new HashIndex();
+		for (final var hash : holders) {
+			blackhole.consume(index.add(hash, 0L, size, null, null, path));
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package gay.ampflower.worldpacker;
+
+import gay.ampflower.worldpacker.compressor.Compression;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Archives a {@link WorldTree} as a tar through zstd in every {@link Order}, as tar leaves every file as is
+ * for zstd to find what's alike between them.
+ * <p>
+ * Alongside the time taken, both how much went into zstd and how much came out are counted per second,
+ * so that dividing the two gives the compression ratio each order gets.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class OrderBenchmark {
+	@Param({"size", "extension", "directory", "similarity"})
+	public Order order;
+
+	@Param({"zstd:3", "zstd:19"})
+	public String compression;
+
+	@Param({"32"})
+	public int regions;
+
+	private List<Holder> holders;
+	private Compression compressor;
+
+	@Setup
+	public void setup() {
+		holders = WorldTree.holders(WorldTree.generate(0x5EED, regions, (int) Utils.MiB));
+		compressor = Compression.parse(compression);
+	}
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Sizes {
+		public long rawBytes;
+		public long compressedBytes;
+	}
+
+	/**
+	 * @return The size of the compressed archive, so that it isn't thrown away.
+	 */
+	@Benchmark
+	public long archive(final Sizes sizes) throws IOException {
+		final var compressed = new CountingOutputStream(OutputStream.nullOutputStream());
+		final var raw = new CountingOutputStream(compressor.wrap(compressed));
+		Archive.tar.toArchiver(0).archive(raw, Path.of("."), holders, order, new AtomicInteger());
+
+		sizes.rawBytes += raw.getByteCount();
+		sizes.compressedBytes += compressed.getByteCount();
+		return compressed.getByteCount();
+	}
+}
@@ -0,0 +1,166 @@
+package gay.ampflower.worldpacker;
+
+import gay.ampflower.worldpacker.io.MinHash;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Synthetic tree shaped like a world save, the same for every run with the same seed.
+ * <p>
+ * Regions are an 8 KiB location header followed by chunks of low entropy bytes, so that they deflate
+ * roughly as well as real ones. A quarter of them show up again in the nether, as if copied over,
+ * every region has an empty entities region beside it, and there's the usual scattering of player data
+ * and level data, including an identical {@code level.dat_old}. Player data all shares the same structure,
+ * only differing in a few places and in length, as real player data does.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+public final class WorldTree {
+	private static final int sector = 4096;
+	private static final int regionHeader = 2 * sector;
+
+	private WorldTree() {
+	}
+
+	/**
+	 * @param regions    The amount of overworld regions.
+	 * @param regionSize The size of each region, rounded up to a sector.
+	 * @return The relative path of each file to its contents.
+	 */
+	public static Map<Path, byte[]> generate(final long seed, final int regions, final int regionSize) {
+		final var random = new SplittableRandom(seed);
+		final var files = new TreeMap<Path, byte[]>();
+		final var emptyRegion = new byte[regionHeader];
+
+		for (int i = 0; i < regions; i++) {
+			final String name = "r." + (i % 8 - 4) + '.' + (i / 8 - 4) + ".mca";
+			final var region = region(random, regionSize);
+
+			files.put(Path.of("region", name), region);
+			files.put(Path.of("entities", name), emptyRegion);
+			if (i % 4 == 0) {
+				files.put(Path.of("DIM-1", "region", name), region);
+			}
+		}
+
+		final var player = bytes(random, 4 * 1024);
+		for (int i = 0; i < 16; i++) {
+			files.put(Path.of("playerdata", uuid(random) + ".dat"), alike(random, player));
+		}
+
+		final var level = bytes(random, 2 * 1024);
+		files.put(Path.of("level.dat"), level);
+		files.put(Path.of("level.dat_old"), level);
+		files.put(Path.of("data", "raids.dat"), bytes(random, 96));
+		files.put(Path.of("session.lock"), new byte[]{(byte) 0xE2, (byte) 0x98, (byte) 0x83});
+
+		return files;
+	}
+
+	/**
+	 * Writes the tree out under the root.
+	 */
+	public static void write(final Path root, final Map<Path, byte[]> files) throws IOException {
+		for (final var entry : files.entrySet()) {
+			final var path = root.resolve(entry.getKey());
+			Files.createDirectories(path.getParent());
+			Files.write(path, entry.getValue());
+		}
+	}
+
+	/**
+	 * Deletes the root and everything under it.
+	 */
+	public static void delete(final Path root) throws IOException {
+		try (final var stream = Files.walk(root)) {
+			stream.sorted(Comparator.reverseOrder()).forEach(path -> {
+				try {
+					Files.delete(path);
+				} catch (IOException io) {
+					throw new UncheckedIOException(io);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Groups the tree by content into in-memory holders, sketched as the reader would have.
+	 */
+	public static List<Holder> holders(final Map<Path, byte[]> files) {
+		final var holders = new HashMap<ByteBuffer, Holder>();
+		final var names = new PathTrie();
+
+		for (final var entry : files.entrySet()) {
+			final var bytes = entry.getValue();
+			holders.computeIfAbsent(ByteBuffer.wrap(bytes), $ -> {
+				final var crc = new CRC32();
+				crc.update(bytes);
+				final var sketch = new MinHash();
+				sketch.update(ByteBuffer.wrap(bytes));
+				return new Holder(crc.getValue(), bytes.length, Data.storeBytes(entry.getKey(), bytes), sketch);
+			}).paths().add(names.path(entry.getKey()));
+		}
+
+		return new ArrayList<>(holders.values());
+	}
+
+	private static byte[] region(final SplittableRandom random, final int size) {
+		final int sectors = Math.max(1, (size - regionHeader + sector - 1) / sector);
+		final var region = ByteBuffer.allocate(regionHeader + sectors * sector);
+
+		// One chunk per sector, as a freshly generated region would roughly have.
+		for (int i = 0; i < Math.min(sectors, 1024); i++) {
+			region.putInt(i * 4, ((2 + i) << 8) | 1);
+		}
+
+		final var chunk = new byte[sector];
+		for (int i = 0; i < sectors; i++) {
+			final int length = sector / 2 + random.nextInt(sector / 2 - 5);
+			for (int j = 0; j < length; j++) {
+				chunk[j] = (byte) random.nextInt(16);
+			}
+			region.position(regionHeader + i * sector);
+			region.putInt(length + 1).put((byte) 2).put(chunk, 0, length);
+		}
+
+		return region.array();
+	}
+
+	private static byte[] bytes(final SplittableRandom random, final int size) {
+		final var bytes = new byte[size];
+		for (int i = 0; i < size; i++) {
+			bytes[i] = (byte) random.nextInt(32);
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return The template cut short by up to a KiB, with about one byte in 64 changed.
+	 */
+	private static byte[] alike(final SplittableRandom random, final byte[] template) {
+		final var bytes = Arrays.copyOf(template, template.length - random.nextInt(1024));
+		for (int i = random.nextInt(64); i < bytes.length; i += 1 + random.nextInt(128)) {
+			bytes[i] = (byte) random.nextInt(32);
+		}
+		return bytes;
+	}
+
+	private static String uuid(final SplittableRandom random) {
+		return new UUID(random.nextLong(), random.nextLong()).toString();
+	}
+}
@@ -0,0 +1,102 @@
+package gay.ampflower.worldpacker.io;
+
+import gay.ampflower.worldpacker.Utils;
+import gay.ampflower.worldpacker.WorldTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Hashes roughly 64 MiB of files one after another on a single thread, with SHA-256 and CRC32 as it always was,
+ * both through the chain of {@link java.security.DigestInputStream} and {@link java.util.zip.CheckedInputStream}
+ * files used to be read through, and through {@link FileHasher}.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class FileHasherBenchmark {
+	@Param({"4K", "1M", "16M"})
+	public String size;
+
+	private Path root;
+	private Path[] files;
+
+	private DigestStreamFactory digestFactory;
+	private ChecksumStreamFactory cksumFactory;
+	private FileHasher hasher;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, NoSuchAlgorithmException {
+		digestFactory = new DigestStreamFactory(() -> MessageDigest.getInstance("SHA-256"));
+		cksumFactory = new ChecksumStreamFactory(CRC32::new);
+		// Never mapping, as reading is what's being compared.
+		hasher = new FileHasher(HashAlgorithm.sha256, cksumFactory, 0L, false);
+
+		root = Files.createTempDirectory("world-packer");
+
+		final var random = new SplittableRandom(0x5EED);
+		final var bytes = new byte[(int) Utils.parseSize(size)];
+		files = new Path[(int) Math.max(1, 64 * Utils.MiB / bytes.length)];
+		for (int i = 0; i < files.length; i++) {
+			random.nextBytes(bytes);
+			files[i] = Files.write(root.resolve(Integer.toString(i)), bytes);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		WorldTree.delete(root);
+	}
+
+	/**
+	 * The baseline, as files were read before {@link FileHasher}.
+	 */
+	@Benchmark
+	public void streams(final Blackhole blackhole) throws IOException {
+		for (final var path : files) {
+			try (
+					final var input = Files.newInputStream(path);
+					final var digest = digestFactory.of(input);
+					final var cksum = cksumFactory.of(digest.inputStream())
+			) {
+				cksum.inputStream().transferTo(OutputStream.nullOutputStream());
+				blackhole.consume(digest.digest().digest());
+				blackhole.consume(cksum.checksum().getValue());
+			}
+		}
+	}
+
+	@Benchmark
+	public void fileHasher(final Blackhole blackhole) throws IOException {
+		for (final var path : files) {
+			blackhole.consume(hasher.hash(path, null));
+		}
+	}
+}
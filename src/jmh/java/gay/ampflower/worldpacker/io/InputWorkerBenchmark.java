@@ -0,0 +1,104 @@
+package gay.ampflower.worldpacker.io;
+
+import gay.ampflower.worldpacker.Utils;
+import gay.ampflower.worldpacker.WorldTree;
+import org.apache.commons.lang3.time.StopWatch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Reads trees off disk, which will more than likely be the page cache after the first iteration.
+ * <p>
+ * The tree is either a flat directory of roughly 64 MiB of unique files of one size, or a {@link WorldTree},
+ * duplicates and all.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class InputWorkerBenchmark {
+	@Param({"4K", "1M", "16M", "world"})
+	public String tree;
+
+	@Param({"1", "4", "64", "auto"})
+	public String jobs;
+
+	@Param({"8M"})
+	public String mmapThreshold;
+
+	// The flat trees are all one size, so staged has to sample every file; only the world has any sizes to itself.
+	@Param({"full", "staged"})
+	public Dedup dedup;
+
+	@Param({"xxh64", "sha256"})
+	public HashAlgorithm hash;
+
+	// Whether the CRC32 zips need is taken as well.
+	@Param({"true", "false"})
+	public boolean crc32;
+
+	private Path root;
+
+	private ChecksumStreamFactory cksumFactory;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, NoSuchAlgorithmException {
+		cksumFactory = crc32 ? new ChecksumStreamFactory(CRC32::new) : null;
+
+		root = Files.createTempDirectory("world-packer");
+
+		if ("world".equals(tree)) {
+			WorldTree.write(root, WorldTree.generate(0x5EED, 64, (int) Utils.MiB));
+			return;
+		}
+
+		final var random = new SplittableRandom(0x5EED);
+		final var bytes = new byte[(int) Utils.parseSize(tree)];
+		for (int i = 0, count = (int) Math.max(1, 64 * Utils.MiB / bytes.length); i < count; i++) {
+			random.nextBytes(bytes);
+			Files.write(root.resolve(Integer.toString(i)), bytes);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		WorldTree.delete(root);
+	}
+
+	/**
+	 * @return The amount of unique files found, so that it isn't thrown away.
+	 */
+	@Benchmark
+	public int digest() {
+		final var options = InputWorker.Options.of(hash)
+				.withDedup(dedup)
+				.withChecksums(cksumFactory)
+				.withMapThreshold(Utils.parseSize(mmapThreshold));
+		final var worker = new InputWorker(root, InputCache.NONE, HashCache.NONE, JobLimiter.parse(jobs), options, StopWatch.create());
+		return worker.digest().uniqueCount.get();
+	}
+}
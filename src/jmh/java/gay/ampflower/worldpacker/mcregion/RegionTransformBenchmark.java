@@ -0,0 +1,156 @@
+package gay.ampflower.worldpacker.mcregion;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Transforms a region into a {@code .wpr} and restores it again.
+ * <p>
+ * The region is made to hit every case the format has to carry: zlib chunks at every level hint, chunks stored as is,
+ * a zlib chunk with bytes trailing its stream, chunks laid out out of index order, padding and unused sectors
+ * full of garbage, and trailing bytes past the last sector. Setup fails if it doesn't restore byte for byte,
+ * so that any change to the format breaking restores can't go by unnoticed.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class RegionTransformBenchmark {
+	private static final int chunks = 64;
+	private static final int trailing = 123;
+
+	private byte[] region;
+	private byte[] transformed;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		region = region(new SplittableRandom(0x5EED));
+		transformed = RegionTransform.transform(ByteBuffer.wrap(region));
+
+		final var restored = RegionTransform.restore(ByteBuffer.wrap(transformed));
+		if (!restored.exact() || !Arrays.equals(region, restored.region())) {
+			throw new IllegalStateException("Region didn't restore byte for byte; exact: " + restored.exact());
+		}
+	}
+
+	@Benchmark
+	public byte[] transform() throws IOException {
+		return RegionTransform.transform(ByteBuffer.wrap(region));
+	}
+
+	@Benchmark
+	public RegionTransform.Restored restore() throws IOException {
+		return RegionTransform.restore(ByteBuffer.wrap(transformed));
+	}
+
+	private static byte[] region(final SplittableRandom random) {
+		final var output = ByteBuffer.allocate(RegionReader.headerSize + chunks * 4 * RegionReader.sectorSize + trailing);
+
+		// Garbage everywhere, so that padding and unused sectors have something to lose.
+		final var garbage = new byte[output.capacity()];
+		random.nextBytes(garbage);
+		output.put(0, garbage);
+		output.put(0, new byte[RegionReader.sectorSize]);
+
+		int sector = RegionReader.headerSize / RegionReader.sectorSize;
+		for (int i = 0; i < chunks; i++) {
+			// Scattered, so that file order isn't index order.
+			final int index = i * 37 % RegionReader.chunkCount;
+
+			final int type;
+			final byte[] payload;
+			switch (i % 5) {
+				case 0 -> {
+					type = 2;
+					payload = deflate(nbt(random), Deflater.DEFAULT_COMPRESSION);
+				}
+				case 1 -> {
+					type = 2;
+					payload = deflate(nbt(random), Deflater.BEST_COMPRESSION);
+				}
+				case 2 -> {
+					type = 2;
+					payload = deflate(nbt(random), Deflater.BEST_SPEED);
+				}
+				case 3 -> {
+					// Uncompressed, as the game writes with `region-file-compression=none`.
+					type = 3;
+					payload = nbt(random);
+				}
+				default -> {
+					// Something after the end of the stream, so it can't be inflated and kept exact.
+					type = 2;
+					final var deflated = deflate(nbt(random), Deflater.DEFAULT_COMPRESSION);
+					payload = Arrays.copyOf(deflated, deflated.length + 3);
+				}
+			}
+
+			final int sectors = (5 + payload.length + RegionReader.sectorSize - 1) / RegionReader.sectorSize;
+			output.putInt(index * 4, (sector << 8) | sectors);
+			output.putInt(RegionReader.sectorSize + index * 4, random.nextInt());
+
+			final int start = sector * RegionReader.sectorSize;
+			output.putInt(start, payload.length + 1);
+			output.put(start + 4, (byte) type);
+			output.put(start + 5, payload);
+
+			sector += sectors;
+			// Every so often, a sector nothing points at.
+			if (i % 3 == 0) {
+				sector++;
+			}
+		}
+
+		return Arrays.copyOf(output.array(), sector * RegionReader.sectorSize + trailing);
+	}
+
+	/**
+	 * @return Something about as repetitive as NBT, which deflates down to a sector or so.
+	 */
+	private static byte[] nbt(final SplittableRandom random) {
+		final var bytes = new byte[2048 + random.nextInt(8192)];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) random.nextInt(16);
+		}
+		return bytes;
+	}
+
+	private static byte[] deflate(final byte[] raw, final int level) {
+		final var deflater = new Deflater(level);
+		try {
+			deflater.setInput(raw);
+			deflater.finish();
+
+			final var output = new ByteArrayOutputStream();
+			final var buffer = new byte[8192];
+			while (!deflater.finished()) {
+				output.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return output.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+}
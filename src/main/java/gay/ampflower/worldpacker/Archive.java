@@ -6,37 +6,56 @@ import gay.ampflower.worldpacker.archiver.Archiver;
  * @author Ampflower
  **/
 public enum Archive {
-	ar {
+	ar(false) {
 		@Override
-		public Archiver<?, ?, ?> toArchiver() {
+		public Archiver<?, ?, ?> toArchiver(final int level) {
 			return new Archiver.Ar();
 		}
 	},
-	cpio {
+	cpio(false) {
 		@Override
-		public Archiver<?, ?, ?> toArchiver() {
+		public Archiver<?, ?, ?> toArchiver(final int level) {
 			return new Archiver.Cpio();
 		}
 	},
-	tar {
+	tar(false) {
 		@Override
-		public Archiver<?, ?, ?> toArchiver() {
+		public Archiver<?, ?, ?> toArchiver(final int level) {
 			return new Archiver.Tar();
 		}
 	},
-	zip {
+	zip(true) {
 		@Override
-		public Archiver<?, ?, ?> toArchiver() {
-			return new Archiver.Zip();
+		public Archiver<?, ?, ?> toArchiver(final int level) {
+			return new Archiver.Zip(level);
 		}
 	},
 
-	java_zip {
+	dedup_zip(true) {
 		@Override
-		public Archiver<?, ?, ?> toArchiver() {
-			return new Archiver.JavaZip();
+		public Archiver<?, ?, ?> toArchiver(final int level) {
+			return new Archiver.DedupZip(level);
+		}
+	},
+
+	java_zip(true) {
+		@Override
+		public Archiver<?, ?, ?> toArchiver(final int level) {
+			return new Archiver.JavaZip(level);
 		}
 	};
 
-	public abstract Archiver<?, ?, ?> toArchiver();
+	/**
+	 * Whether entries carry the CRC32 of their contents, which otherwise needn't be taken while reading.
+	 */
+	public final boolean crc32;
+
+	Archive(final boolean crc32) {
+		this.crc32 = crc32;
+	}
+
+	/**
+	 * @param level The deflate level, from 0 to 9. Archives that don't compress ignore it.
+	 */
+	public abstract Archiver<?, ?, ?> toArchiver(final int level);
 }
@@ -1,18 +1,86 @@
 package gay.ampflower.worldpacker;
 
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 
 /**
  * @author Ampflower
  **/
 public interface Data {
+	/**
+	 * Reads the data onto the heap in full. Prefer the streaming methods where the size isn't bounded.
+	 */
 	byte[] toArray() throws IOException;
 
-	static Data storePath(final Path path) throws IOException {
-		return new PathEntry(path);
+	/**
+	 * Opens the data for reading from the start.
+	 */
+	ReadableByteChannel openChannel() throws IOException;
+
+	/**
+	 * Writes out the data as is, without necessarily holding all of it in memory at once.
+	 */
+	default void writeTo(final OutputStream output) throws IOException {
+		try (final var input = Channels.newInputStream(openChannel())) {
+			input.transferTo(output);
+		}
+	}
+
+	/**
+	 * Writes out the data as is to the channel, letting the kernel copy straight from file to file where it can.
+	 *
+	 * @return The amount of bytes written.
+	 */
+	default long transferTo(final WritableByteChannel channel) throws IOException {
+		try (final var source = openChannel()) {
+			final var buffer = ByteBuffer.allocateDirect(64 * 1024);
+			long length = 0;
+			while (source.read(buffer.clear()) >= 0) {
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					length += channel.write(buffer);
+				}
+			}
+			return length;
+		}
+	}
+
+	/**
+	 * Lets go of anything held in memory once written; later reads may fall back to slower means.
+	 */
+	default void release() {
+	}
+
+	/**
+	 * Stores the path, relative to the input, only resolving it against the input once read.
+	 */
+	static Data storePath(final Path root, final EntryPath path) throws IOException {
+		return new PathEntry(root, path);
+	}
+
+	/**
+	 * Stores the path, mapping the file into memory when written rather than reading it onto the heap.
+	 */
+	static Data mapPath(final Path root, final EntryPath path) throws IOException {
+		return new MappedEntry(root, path);
+	}
+
+	/**
+	 * Stores part of the file at the path, read again when written.
+	 */
+	static Data slicePath(final Path root, final EntryPath path, final long offset, final long length) {
+		return new SliceEntry(root, path, offset, length);
 	}
 
 	static Data storeBytes(final Path path) throws IOException {
@@ -23,14 +91,134 @@ public interface Data {
 		return new RawEntry(source, bytes);
 	}
 
-	record PathEntry(Path path) implements Data {
+	record PathEntry(Path root, EntryPath path) implements Data {
 		@Override
 		public byte[] toArray() throws IOException {
-			return Files.readAllBytes(path);
+			return Files.readAllBytes(resolve(root, path));
+		}
+
+		@Override
+		public ReadableByteChannel openChannel() throws IOException {
+			return FileChannel.open(resolve(root, path), StandardOpenOption.READ);
+		}
+
+		@Override
+		public long transferTo(final WritableByteChannel channel) throws IOException {
+			return transfer(resolve(root, path), channel);
+		}
+	}
+
+	record MappedEntry(Path root, EntryPath path) implements Data {
+		// Mappings are indexed by int.
+		private static final long mapWindow = Utils.GiB;
+		private static final int copySize = 64 * 1024;
+
+		@Override
+		public byte[] toArray() throws IOException {
+			return Files.readAllBytes(resolve(root, path));
+		}
+
+		@Override
+		public ReadableByteChannel openChannel() throws IOException {
+			return FileChannel.open(resolve(root, path), StandardOpenOption.READ);
+		}
+
+		@Override
+		public void writeTo(final OutputStream output) throws IOException {
+			final var copy = new byte[copySize];
+
+			try (final var channel = FileChannel.open(resolve(root, path), StandardOpenOption.READ)) {
+				final long size = channel.size();
+				for (long position = 0; position < size; position += mapWindow) {
+					final var mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(mapWindow, size - position));
+					while (mapped.hasRemaining()) {
+						final int length = Math.min(copy.length, mapped.remaining());
+						mapped.get(copy, 0, length);
+						output.write(copy, 0, length);
+					}
+				}
+			}
+		}
+
+		@Override
+		public long transferTo(final WritableByteChannel channel) throws IOException {
+			return transfer(resolve(root, path), channel);
+		}
+	}
+
+	record SliceEntry(Path root, EntryPath path, long offset, long length) implements Data {
+		@Override
+		public byte[] toArray() throws IOException {
+			final var bytes = ByteBuffer.allocate(Math.toIntExact(length));
+			try (final var channel = FileChannel.open(resolve(root, path), StandardOpenOption.READ)) {
+				while (bytes.hasRemaining()) {
+					if (channel.read(bytes, offset + bytes.position()) < 0) {
+						throw new EOFException(path + " is shorter than when it was read");
+					}
+				}
+			}
+			return bytes.array();
+		}
+
+		@Override
+		public ReadableByteChannel openChannel() throws IOException {
+			return Channels.newChannel(new ByteArrayInputStream(toArray()));
+		}
+
+		@Override
+		public long transferTo(final WritableByteChannel target) throws IOException {
+			try (final var channel = FileChannel.open(resolve(root, path), StandardOpenOption.READ)) {
+				long position = 0;
+				while (position < length) {
+					final long transferred = channel.transferTo(offset + position, length - position, target);
+					if (transferred <= 0) {
+						throw new EOFException(path + " is shorter than when it was read");
+					}
+					position += transferred;
+				}
+				return position;
+			}
+		}
+	}
+
+	private static Path resolve(final Path root, final EntryPath path) {
+		return root.resolve(path.toString());
+	}
+
+	private static long transfer(final Path path, final WritableByteChannel target) throws IOException {
+		try (final var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final long size = channel.size();
+			long position = 0;
+			while (position < size) {
+				final long transferred = channel.transferTo(position, size - position, target);
+				if (transferred <= 0) {
+					break;
+				}
+				position += transferred;
+			}
+			return position;
 		}
 	}
 
 	record RawEntry(Object source, @Override byte[] toArray) implements Data {
+		@Override
+		public ReadableByteChannel openChannel() {
+			return Channels.newChannel(new ByteArrayInputStream(toArray));
+		}
+
+		@Override
+		public void writeTo(final OutputStream output) throws IOException {
+			output.write(toArray);
+		}
+
+		@Override
+		public long transferTo(final WritableByteChannel channel) throws IOException {
+			final var buffer = ByteBuffer.wrap(toArray);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			return buffer.position();
+		}
 
 		@Override
 		public boolean equals(final Object obj) {
@@ -0,0 +1,162 @@
+package gay.ampflower.worldpacker;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Path of an entry relative to the input, as a node in a trie of its directories.
+ * <p>
+ * Each node only holds its own name, already encoded to UTF-8, and points at its parent directory,
+ * so that every file under the same directory shares the one chain of directories when interned by
+ * a {@link PathTrie}. Archivers that write names themselves can take the encoded bytes
+ * straight from {@link #encoded()} rather than going through a {@link String} first.
+ * Directories hold onto their own encoded path once anything under them is encoded,
+ * so that encoding a file only copies its directory's bytes and its own name.
+ * <p>
+ * Paths are always separated by {@code /}, and ordered name by name, so that a directory sorts before
+ * anything under it and everything under it sorts together.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+public final class EntryPath implements Comparable<EntryPath> {
+	private final EntryPath parent;
+	private final byte[] name;
+	private final int depth;
+	private final int hash;
+	// Only ever set on directories, once something under them is encoded.
+	private volatile byte[] prefix;
+
+	EntryPath(final EntryPath parent, final byte[] name) {
+		this.parent = parent;
+		this.name = name;
+		this.depth = parent == null ? 0 : parent.depth + 1;
+		this.hash = (parent == null ? 0 : parent.hash * 31) + Arrays.hashCode(name);
+	}
+
+	/**
+	 * Makes a path on its own, not sharing its directories with anything else. Prefer {@link PathTrie#path(Path)}
+	 * for anything that's going to be kept around.
+	 *
+	 * @param path A relative path, i.e. {@code region/r.0.0.mca}.
+	 */
+	public static EntryPath of(final String path) {
+		EntryPath current = null;
+		for (final var name : path.split("/")) {
+			if (!name.isEmpty()) {
+				current = new EntryPath(current, name.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		if (current == null) {
+			throw new IllegalArgumentException("Empty path: " + path);
+		}
+		return current;
+	}
+
+	public static EntryPath of(final Path path) {
+		EntryPath current = null;
+		for (final var name : path) {
+			current = new EntryPath(current, name.toString().getBytes(StandardCharsets.UTF_8));
+		}
+		if (current == null) {
+			throw new IllegalArgumentException("Empty path: " + path);
+		}
+		return current;
+	}
+
+	/**
+	 * @return The directory this is in, or null if it's at the top.
+	 */
+	public EntryPath parent() {
+		return parent;
+	}
+
+	/**
+	 * @return The entire path encoded in UTF-8, separated by {@code /}.
+	 */
+	public byte[] encoded() {
+		if (parent == null) {
+			return name.clone();
+		}
+
+		final var prefix = parent.prefix();
+		final var bytes = Arrays.copyOf(prefix, prefix.length + 1 + name.length);
+		bytes[prefix.length] = '/';
+		System.arraycopy(name, 0, bytes, prefix.length + 1, name.length);
+		return bytes;
+	}
+
+	/**
+	 * @return The encoded path of this as a directory, kept for everything else under it.
+	 */
+	private byte[] prefix() {
+		var prefix = this.prefix;
+		if (prefix == null) {
+			// Racing only ever comes up with the same bytes.
+			this.prefix = prefix = encoded();
+		}
+		return prefix;
+	}
+
+	/**
+	 * @return Whatever follows the last dot of the name, or empty if there's none.
+	 */
+	public String extension() {
+		for (int i = name.length - 1; i >= 0; i--) {
+			if (name[i] == '.') {
+				return new String(name, i + 1, name.length - i - 1, StandardCharsets.UTF_8);
+			}
+		}
+		return "";
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o) {
+			return true;
+		}
+		return o instanceof EntryPath other
+			   && hash == other.hash
+			   && depth == other.depth
+			   && Arrays.equals(name, other.name)
+			   && (parent == null || parent.equals(other.parent));
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public int compareTo(final EntryPath o) {
+		if (this == o) {
+			return 0;
+		}
+
+		// Brings both to the same depth, where a directory comes before anything under it.
+		var a = this;
+		var b = o;
+		while (a.depth > b.depth) {
+			a = a.parent;
+		}
+		while (b.depth > a.depth) {
+			b = b.parent;
+		}
+		if (a.equals(b)) {
+			return Integer.compare(depth, o.depth);
+		}
+
+		// Then up until both are in the same directory.
+		while (!(a.parent == null ? b.parent == null : a.parent.equals(b.parent))) {
+			a = a.parent;
+			b = b.parent;
+		}
+		return Arrays.compareUnsigned(a.name, b.name);
+	}
+
+	@Override
+	public String toString() {
+		return new String(encoded(), StandardCharsets.UTF_8);
+	}
+}
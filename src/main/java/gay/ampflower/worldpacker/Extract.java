@@ -0,0 +1,238 @@
+package gay.ampflower.worldpacker;
+
+import gay.ampflower.worldpacker.archiver.Archiver;
+import gay.ampflower.worldpacker.compressor.Compression;
+import gay.ampflower.worldpacker.io.ChunkedFile;
+import gay.ampflower.worldpacker.io.ExtractWorker;
+import gay.ampflower.worldpacker.io.JobLimiter;
+import gay.ampflower.worldpacker.io.SeekIndex;
+import gay.ampflower.worldpacker.mcregion.RegionTransform;
+import gay.ampflower.worldpacker.metrics.Metrics;
+import org.apache.commons.lang3.time.StopWatch;
+import org.slf4j.Logger;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+import java.io.BufferedInputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Ampflower
+ * @since ${version}
+ **/
+@Command(
+		name = "extract",
+		mixinStandardHelpOptions = true,
+		description = """
+				Extracts an archive written by world-packer.
+
+				By default, it'll read stdin, then extract into the current working directory.
+
+				The archive is read on one thread while files are written on many. Files with the same contents
+				are only written once, then copied or linked to their other paths. Regions stored with
+				`--transform-regions` and files stored with `--chunk-threshold` are put back as they were.
+
+				Single files can be read out of an archive packed with `--index` with `--path`."""
+)
+public final class Extract implements Callable<Integer> {
+	private static final Logger logger = Utils.logger();
+
+	// Archivers like to read in small pieces.
+	private static final int bufferSize = 128 * 1024;
+
+	@Parameters(index = "0", description = "input", defaultValue = "-")
+	private String input;
+
+	@Parameters(index = "1", description = "output", defaultValue = ".")
+	private Path output;
+
+	@Option(names = {"-a", "--archive"},
+			description = "Valid: ar, cpio, zip, dedup_zip, java_zip, tar\n" +
+						  "\n" +
+						  "Zips given as a file are read by their central directory, which `dedup_zip` needs, " +
+						  "and which points out its duplicates without hashing them. Defaults to zip.",
+			defaultValue = "zip")
+	private Archive archive;
+
+	@Option(names = {"-c", "--compress"},
+			description = "Decompresses the archive in process with the given compressor. Valid: zstd, lz4, xz\n" +
+						  "\n" +
+						  "Any level given is ignored. Zips are then streamed, so `dedup_zip` can't be decompressed in process.",
+			converter = Compression.Converter.class)
+	private Compression compression;
+
+	@Option(names = {"-j", "--jobs"},
+			description = "The amount of virtual threads to throw at writing.\n" +
+						  "\n" +
+						  "Files up to 8 MiB are handed off to be written; anything larger is written while it's read. " +
+						  "Takes the same values as when packing, including `auto`.\n" +
+						  "\n" +
+						  "Defaults to the amount of threads available, multiplied by 4.",
+			converter = JobLimiter.Converter.class,
+			defaultValue = "0")
+	private JobLimiter jobs;
+
+	@Option(names = {"--link"},
+			description = "How files with the same contents as one already written are written. Valid: copy, hardlink\n" +
+						  "\n" +
+						  "`copy` leaves copying to the kernel, which filesystems with reflinks, such as btrfs and XFS, " +
+						  "share rather than copy. `hardlink` makes every path the same file, falling back to copying " +
+						  "where it can't; the game edits regions in place, which would then edit every copy.\n" +
+						  "\n" +
+						  "Defaults to `copy`.",
+			defaultValue = "copy")
+	private ExtractWorker.Link link;
+
+	@Option(names = {"--raw"},
+			description = "Leaves `.wpr` regions and `.wpc` chunked files as stored, along with `.world-packer/chunks`.")
+	private boolean raw;
+
+	@Option(names = {"--index"},
+			description = "The index written alongside the archive by `--index` when packing, for `--path`.",
+			paramLabel = "<file>")
+	private Path indexPath;
+
+	@Option(names = {"--path"},
+			description = "Only extracts the given path, which may be given more than once, " +
+						  "seeking to it by `--index` rather than reading the whole archive.\n" +
+						  "\n" +
+						  "Transformed regions and chunked files may be given by their own names; " +
+						  "chunks are read along with the files listing them. " +
+						  "The archive and compressor are taken from the index, and the input must be a file.",
+			paramLabel = "<path>")
+	private List<String> paths;
+
+	@Option(names = {"--metrics"},
+			description = "Write a JSON summary of the extraction to the given file once done.",
+			paramLabel = "<file.json>")
+	private Path metricsPath;
+
+	@Override
+	public Integer call() throws IOException {
+		if (paths != null && (indexPath == null || "-".equals(input))) {
+			System.err.println("`--path` needs `--index`, and the archive as a file to seek into.");
+			return -1;
+		}
+
+		if (paths == null && archive == Archive.dedup_zip && (compression != null || "-".equals(input))) {
+			System.err.println("`dedup_zip` only lists duplicates in its central directory, " +
+							   "and must be extracted from a file without `-c`.");
+			return -1;
+		}
+
+		logger.info("Using {} to write out files.", this.jobs);
+
+		final var stopwatch = StopWatch.create();
+		final var worker = new ExtractWorker(output, jobs, link, raw, stopwatch);
+		final var archiver = archive.toArchiver(0);
+
+		final var scheduled = Main.executor.scheduleAtFixedRate(
+				worker::log,
+				5,
+				5,
+				TimeUnit.SECONDS
+		);
+
+		stopwatch.start();
+
+		if (paths != null) {
+			this.extractPaths(worker);
+		} else if (compression == null && !"-".equals(input) && archiver instanceof Archiver.Indexed<?, ?, ?> indexed) {
+			indexed.extract(Path.of(input), worker);
+		} else {
+			archiver.extract(this.open(), worker);
+		}
+		worker.finish();
+
+		stopwatch.stop();
+		scheduled.cancel(false);
+
+		logger.info("Done!");
+		worker.log();
+
+		if (metricsPath != null) {
+			final var metrics = new Metrics();
+			worker.report(metrics);
+			metrics.put("archive", archive.name());
+			metrics.put("compression", compression == null ? "none" : compression.compressor().name());
+			try {
+				metrics.write(metricsPath);
+				logger.info("Metrics available at {}", metricsPath);
+			} catch (IOException io) {
+				logger.warn("Cannot write metrics to {}", metricsPath, io);
+			}
+		}
+
+		if (worker.errors() > 0) {
+			logger.error("{} files could not be written", worker.errors());
+			return 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Reads each path out of the range the index gives it, followed by any chunks they list.
+	 */
+	private void extractPaths(final ExtractWorker worker) throws IOException {
+		final var table = SeekIndex.read(indexPath);
+		final var archiver = table.archive().toArchiver(0);
+		final var found = new LinkedHashSet<String>();
+
+		for (final var path : paths) {
+			final var name = stored(table, path);
+			if (name == null) {
+				throw new IOException(path + " isn't in " + indexPath);
+			}
+			found.add(name);
+		}
+
+		try (final var channel = FileChannel.open(Path.of(input), StandardOpenOption.READ)) {
+			for (final var name : found) {
+				archiver.extract(table.open(channel, table.entries().get(name)), worker.only(name));
+			}
+			for (final var name : worker.chunks()) {
+				final var range = table.entries().get(name);
+				if (range == null) {
+					logger.warn("Chunk {} isn't in {}", name, indexPath);
+					continue;
+				}
+				archiver.extract(table.open(channel, range), worker.only(name));
+			}
+		}
+	}
+
+	/**
+	 * @return The name the path is stored under, which may have been given an extension when stored,
+	 * or null if it isn't.
+	 */
+	private String stored(final SeekIndex.Table table, final String path) {
+		for (final var extension : new String[]{"", RegionTransform.extension, ChunkedFile.extension}) {
+			if (table.entries().containsKey(path + extension)) {
+				return path + extension;
+			}
+		}
+		return null;
+	}
+
+	private InputStream open() throws IOException {
+		if (compression != null) {
+			logger.info("Decompressing with {}", compression.compressor());
+		}
+		final InputStream stream = "-".equals(input)
+				? new FileInputStream(FileDescriptor.in)
+				: Files.newInputStream(Path.of(input));
+		return compression == null ? new BufferedInputStream(stream, bufferSize) : compression.unwrap(stream);
+	}
+}
@@ -5,13 +5,18 @@ import java.lang.invoke.VarHandle;
 import java.nio.ByteOrder;
 
 /**
+ * What a file's contents are keyed by, as laid out by the {@link gay.ampflower.worldpacker.io.HashAlgorithm}
+ * that made it: a SHA-256 digest as is, or a faster hash alongside the file's size.
+ * <p>
+ * Keys are compared as 256 unsigned bits, so that sorting by key is the same as sorting a SHA-256 by its bytes.
+ *
  * @author Ampflower
  * @since ${version}
  **/
-public record Sha256HashHolder(long l1, long l2, long l3, long l4) implements Comparable<Sha256HashHolder> {
+public record HashKey(long l1, long l2, long l3, long l4) implements Comparable<HashKey> {
     private static final VarHandle BE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
 
-    public Sha256HashHolder(byte[] hash) {
+    public HashKey(byte[] hash) {
         this((long) BE.get(hash, 0), (long) BE.get(hash, 8), (long) BE.get(hash, 16), (long) BE.get(hash, 24));
     }
 
@@ -30,7 +35,7 @@ public record Sha256HashHolder(long l1, long l2, long l3, long l4) implements Co
     }
 
     @Override
-    public int compareTo(final Sha256HashHolder o) {
+    public int compareTo(final HashKey o) {
         int c = Long.compareUnsigned(l1, o.l1);
         if (c == 0) c = Long.compareUnsigned(l2, o.l2);
         if (c == 0) c = Long.compareUnsigned(l3, o.l3);
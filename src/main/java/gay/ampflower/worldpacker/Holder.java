@@ -1,14 +1,19 @@
 package gay.ampflower.worldpacker;
 
-import java.nio.file.Path;
+import gay.ampflower.worldpacker.io.MinHash;
+
 import java.util.Set;
-import java.util.concurrent.ConcurrentSkipListSet;
 
 /**
+ * @param sketch What the contents look like, for {@link Order#similarity}, or null if not taken.
  * @author Ampflower
  **/
-public record Holder(long crc32, long size, Data data, Set<Path> paths) {
+public record Holder(long crc32, long size, Data data, Set<EntryPath> paths, MinHash sketch) {
 	public Holder(long crc32, long size, Data data) {
-		this(crc32, size, data, new ConcurrentSkipListSet<>());
+		this(crc32, size, data, null);
+	}
+
+	public Holder(long crc32, long size, Data data, MinHash sketch) {
+		this(crc32, size, data, new PathSet(), sketch);
 	}
 }
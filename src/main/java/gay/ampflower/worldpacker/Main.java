@@ -1,8 +1,21 @@
 package gay.ampflower.worldpacker;// Created 2022-11-09T22:30:59
 
+import gay.ampflower.worldpacker.archiver.Archiver;
+import gay.ampflower.worldpacker.compressor.Compression;
+import gay.ampflower.worldpacker.compressor.FramedOutputStream;
+import gay.ampflower.worldpacker.io.ChannelOutputStream;
 import gay.ampflower.worldpacker.io.ChecksumStreamFactory;
-import gay.ampflower.worldpacker.io.DigestStreamFactory;
+import gay.ampflower.worldpacker.io.Dedup;
+import gay.ampflower.worldpacker.io.HashAlgorithm;
+import gay.ampflower.worldpacker.io.HashCache;
+import gay.ampflower.worldpacker.io.InputCache;
 import gay.ampflower.worldpacker.io.InputWorker;
+import gay.ampflower.worldpacker.io.JobLimiter;
+import gay.ampflower.worldpacker.io.Manifest;
+import gay.ampflower.worldpacker.io.SeekIndex;
+import gay.ampflower.worldpacker.io.WindowedQueue;
+import gay.ampflower.worldpacker.metrics.ArchiveEvent;
+import gay.ampflower.worldpacker.metrics.Metrics;
 import org.apache.commons.io.output.CountingOutputStream;
 import org.apache.commons.lang3.time.StopWatch;
 import org.slf4j.Logger;
@@ -14,17 +27,20 @@ import picocli.CommandLine.Parameters;
 import java.io.FileDescriptor;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Formatter;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.CRC32;
@@ -41,7 +57,11 @@ import java.util.zip.CRC32;
 								
 				By default, it'll read the current working directory, then dump it to stdout.
 								
-				At current, no advanced transforms that would allow data savings are applied."""
+				Region files can be stored with their chunks inflated with `--transform-regions`,
+				letting whatever compresses the archive find what chunks have in common.
+
+				Archives are extracted again with `extract`.""",
+		subcommands = Extract.class
 )
 public final class Main implements Callable<Integer> {
 	// Must be executed first.
@@ -52,7 +72,7 @@ public final class Main implements Callable<Integer> {
 
 	private static final Logger logger = Utils.logger();
 
-	private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(it -> {
+	static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(it -> {
 		final var thread = new Thread(it);
 		thread.setDaemon(true);
 		return thread;
@@ -64,9 +84,41 @@ public final class Main implements Callable<Integer> {
 	@Parameters(index = "1", description = "output", defaultValue = "-")
 	private String output;
 
-	@Option(names = {"-a", "--archive"}, description = "Valid: ar, cpio, zip, tar", defaultValue = "zip")
+	@Option(names = {"-a", "--archive"}, description = "Valid: ar, cpio, zip, dedup_zip, java_zip, tar", defaultValue = "zip")
 	private Archive archive;
 
+	@Option(names = {"-l", "--level"},
+			description = "The deflate level to use for zip archives, from 0 to 9.\n" +
+						  "\n" +
+						  "Files are deflated in parallel across all available threads, " +
+						  "with only those at or above 32 MiB being deflated by the writer itself.\n" +
+						  "\n" +
+						  "Defaults to 0, which stores files as is. Ignored by non-zip archives.",
+			defaultValue = "0")
+	private int level;
+
+	@Option(names = {"--order"},
+			description = "What order to write files in. Valid: size, extension, directory, similarity\n" +
+						  "\n" +
+						  "Decides what ends up beside what, and so what `-c` or anything piped into finds within its window. " +
+						  "`size` goes smallest first. `extension` groups files of the same kind, then goes by path. " +
+						  "`directory` goes by path, keeping every directory together. " +
+						  "`similarity` sketches the first 32 KiB of every file while hashing it, " +
+						  "and clusters files that look alike wherever they are, otherwise going by path.\n" +
+						  "\n" +
+						  "While streaming, files are only ordered within each window. Defaults to `size`.",
+			defaultValue = "size")
+	private Order order;
+
+	@Option(names = {"-c", "--compress"},
+			description = "Compresses the archive in process with the given compressor, optionally followed by a level.\n" +
+						  "\n" +
+						  "Valid: zstd, lz4, xz; i.e. `zstd`, `zstd:19`, `xz:9`\n" +
+						  "\n" +
+						  "zstd runs with a worker thread per available processor.",
+			converter = Compression.Converter.class)
+	private Compression compression;
+
 	@Option(names = {"-j", "--jobs"},
 			description = "The amount of virtual threads to throw at reading.\n" +
 						  "\n" +
@@ -78,17 +130,172 @@ public final class Main implements Callable<Integer> {
 						  "If you'd like to witness what happens when a program doesn't properly rate limit its jobs, " +
 						  "set this value to `-1`. You'll probably regret it.\n" +
 						  "\n" +
+						  "Set to `auto` to have the limit adjust itself to how fast reads are going, " +
+						  "starting at 1 and going up to the amount of threads available multiplied by 16. " +
+						  "The bounds may be given as `auto:<min>-<max>`, i.e. `auto:1-64`.\n" +
+						  "\n" +
 						  "Defaults to the amount of threads available, multiplied by 4. (i.e., 4 -> 16, 20 -> 80)",
+			converter = JobLimiter.Converter.class,
 			defaultValue = "0")
-	private int jobs;
+	private JobLimiter jobs;
+
+	@Option(names = {"--dedup"},
+			description = "How to find duplicates. Valid: full, staged\n" +
+						  "\n" +
+						  "`full` hashes every file. `staged` groups files by size first, " +
+						  "then compares the first and last 4 KiB of those sharing a size, only hashing those that still match; " +
+						  "everything else only gets the CRC32 zips need, or isn't read until written for other archives.\n" +
+						  "\n" +
+						  "`staged` cannot be used with `--streaming`, `--sha256sum-export`, `--manifest` or `--base`, " +
+						  "as those need every file digested.",
+			defaultValue = "full")
+	private Dedup dedup;
 
-	@Option(names = {"--sha256sum-export"}, description = "Export a sha256sum compatible file at a given location.")
+	@Option(names = {"--hash"},
+			description = "What to key file contents by when finding duplicates. Valid: sha256, xxh64\n" +
+						  "\n" +
+						  "`sha256`, the default, is the slowest, and can be the limit on fast drives. " +
+						  "`xxh64` takes XXH64 and CRC32C of each file alongside its size, several times faster than SHA-256, " +
+						  "but only holds up against chance, not against anyone crafting files to collide; " +
+						  "files that collide are stored as one, losing all but the first. Only use it on input you trust.\n" +
+						  "\n" +
+						  "Zips take a CRC32 on top, which other archives skip. " +
+						  "`--sha256sum-export` always hashes with SHA-256, as it needs it anyway. " +
+						  "Manifests and hash caches are only good for the algorithm they were made with.",
+			defaultValue = "sha256")
+	private HashAlgorithm hashAlgorithm;
+
+	@Option(names = {"--sha256sum-export"},
+			description = "Export a sha256sum compatible file at a given location.\n" +
+						  "\n" +
+						  "Cannot be used with `--repack-regions`, `--transform-regions` or `--chunk-threshold`, " +
+						  "as the digests have to match the input.")
 	private Path sha256SumPath;
 
+	@Option(names = {"--manifest"},
+			description = "Export a binary manifest of every path and its hash at a given location, for use with `--base`.",
+			paramLabel = "<file>")
+	private Path manifestPath;
+
+	@Option(names = {"--base"},
+			description = "Only write files whose contents aren't in the given manifest from a previous run.\n" +
+						  "\n" +
+						  "The archive also gets an index at `.world-packer/index` listing paths since removed, " +
+						  "and paths whose contents are to be restored from the base. Cannot be used with `--streaming`.",
+			paramLabel = "<manifest>")
+	private Path basePath;
+
+	@Option(names = {"--index"},
+			description = "Write a sidecar index of where every path is within the archive to the given file, " +
+						  "for reading files back out with `extract --path` without going through the whole archive.\n" +
+						  "\n" +
+						  "With `-c`, the archive is compressed as a run of frames that each decompress on their own, " +
+						  "cut between files every `--index-frame`, so that reading a file only decompresses from the frame it's in. " +
+						  "Cannot be used with `ar`. The layout's described in SPECIFICATION.md.",
+			paramLabel = "<file>")
+	private Path indexPath;
+
+	@Option(names = {"--index-frame"},
+			description = "How much to compress into each frame before cutting to the next with `--index`, i.e. `4M`.\n" +
+						  "\n" +
+						  "Smaller frames are quicker to seek into, but compress worse, as nothing's shared between them. " +
+						  "Defaults to `8M`.",
+			converter = SizeConverter.class,
+			defaultValue = "8M")
+	private long indexFrame;
+
+	@Option(names = {"--metrics"},
+			description = "Write a JSON summary of every phase to the given file once done: " +
+						  "walk rate, read latency, hashing speed, job waits, stalls between reading and writing, " +
+						  "and how much the archive wrote.\n" +
+						  "\n" +
+						  "The same phases emit JFR events under `World Packer`, recorded with `-XX:StartFlightRecording`.",
+			paramLabel = "<file.json>")
+	private Path metricsPath;
+
 	@Option(names = {"--dry"}, description = "Dry run, don't write the file, only summarise.")
 	private boolean dry;
 
-	@Option(names = {"--i-have-the-memory-to-store-input"}, description = "Stores the files in memory to allow writing to be faster.")
+	@Option(names = {"--streaming"},
+			description = "Starts writing while still reading, rather than reading everything first.\n" +
+						  "\n" +
+						  "Files are only sorted within each window rather than across the entire input, " +
+						  "and duplicates found after the original was written may end up written again, " +
+						  "except in `dedup_zip`, which will point them at the original.")
+	private boolean streaming;
+
+	@Option(names = {"--stream-window"},
+			description = "The amount of files to queue up for and sort within each window while streaming.",
+			defaultValue = "4096")
+	private int streamWindow;
+
+	@Option(names = {"--input-cache"},
+			description = "Keeps up to this much of the input in off-heap memory to allow writing to be faster, i.e. `512M`, `8G`.\n" +
+						  "\n" +
+						  "Once full, the largest files are given up first and read again from disk when written.\n" +
+						  "The JVM's direct memory limit may need to be raised to match with `-XX:MaxDirectMemorySize`.",
+			converter = SizeConverter.class,
+			defaultValue = "0")
+	private long inputCache;
+
+	@Option(names = {"--mmap-threshold"},
+			description = "Files at or above this size are mapped into memory for hashing and writing rather than read onto the heap, i.e. `8M`, `1G`.\n" +
+						  "\n" +
+						  "Set to `0` to never map.",
+			converter = SizeConverter.class,
+			defaultValue = "8M")
+	private long mmapThreshold;
+
+	@Option(names = {"--chunk-threshold"},
+			description = "Cuts files at or above this size into chunks by their contents, i.e. `1M`, " +
+						  "storing every chunk once under `.world-packer/chunks`, and the file itself as a `.wpc` listing its chunks.\n" +
+						  "\n" +
+						  "Files that only differ by a few KiB, such as `level.dat_old` or datapacks, then only store what differs, " +
+						  "and with `--base`, only chunks not already in the base get written. " +
+						  "Chunked files are read every time regardless of `--hash-cache`. " +
+						  "Regions read by `--repack-regions`, `--transform-regions` or `--region-stats` aren't chunked. " +
+						  "The layout's described in SPECIFICATION.md.\n" +
+						  "\n" +
+						  "Defaults to `0`, which never chunks.",
+			converter = SizeConverter.class,
+			defaultValue = "0")
+	private long chunkThreshold;
+
+	@Option(names = {"--hash-cache"},
+			description = "Remembers the hashes of files in the given file between runs, " +
+						  "skipping reading files that haven't changed since.\n" +
+						  "\n" +
+						  "Files are taken as unchanged if their size, modification time and inode all match.",
+			paramLabel = "<file>")
+	private Path hashCachePath;
+
+	@Option(names = {"--repack-regions"},
+			description = "Lays out region files again with their chunks back to back and all padding zeroed.\n" +
+						  "\n" +
+						  "The game loads the same world from them, but the files themselves will differ from the input, " +
+						  "which allows regions that only differ by layout to be deduplicated.")
+	private boolean repackRegions;
+
+	@Option(names = {"--transform-regions"},
+			description = "Stores region files as `.wpr`, with every chunk inflated to raw NBT, in parallel.\n" +
+						  "\n" +
+						  "Chunks are already deflated on their own, which leaves `-c` and anything piped into nothing to find " +
+						  "between them. Inflated, they compress far smaller together. Only chunks that deflate back to the same bytes " +
+						  "are inflated, and padding is kept, so that the region can be restored exactly; " +
+						  "the layout's described in SPECIFICATION.md. Applied after `--repack-regions`.\n" +
+						  "\n" +
+						  "Regions are kept transformed in `--input-cache` where they fit; " +
+						  "any that don't are transformed all over again when written, doubling the time spent on them.")
+	private boolean transformRegions;
+
+	@Option(names = {"--region-stats"},
+			description = "Hashes every chunk in every region file, reporting how much of them are duplicates of another.\n" +
+						  "\n" +
+						  "Only reports; regions are still stored whole, as archives can only share whole files. " +
+						  "Keeps every chunk's hash in memory until done.")
+	private boolean regionStats;
+
+	@Option(names = {"--i-have-the-memory-to-store-input"}, description = "Stores all the files in memory to allow writing to be faster. Same as an unlimited --input-cache.")
 	private boolean memoryHog;
 
 	// I once did this and my computer rung for 15 minutes straight.
@@ -119,22 +326,60 @@ public final class Main implements Callable<Integer> {
 			return -1;
 		}
 
-		if (this.jobs == 0) {
-			this.jobs = Runtime.getRuntime().availableProcessors() * 4;
-		} else if (this.jobs < 0) {
-			this.jobs = Integer.MAX_VALUE;
+		if (basePath != null && streaming) {
+			System.err.println("`--base` needs the entire input to compare against, and cannot be used with `--streaming`.");
+			return -1;
+		}
+
+		if (indexPath != null && archive == Archive.ar) {
+			System.err.println("`--index` needs every entry to be readable on its own, which `ar` archives aren't.");
+			return -1;
+		}
+
+		if (sha256SumPath != null && (repackRegions || transformRegions || chunkThreshold > 0)) {
+			System.err.println("`--sha256sum-export` lists the digests of files as they are in the input, and cannot be used with " +
+							   "`--repack-regions`, `--transform-regions` or `--chunk-threshold`, which store files other than the input.");
+			return -1;
 		}
 
-		logger.info("Using {} jobs to read in files.", this.jobs);
+		if (dedup == Dedup.staged && (streaming || sha256SumPath != null || manifestPath != null || basePath != null)) {
+			System.err.println("`--dedup staged` leaves files without a digest, and cannot be used with " +
+							   "`--streaming`, `--sha256sum-export`, `--manifest` or `--base`.");
+			return -1;
+		}
+
+		logger.info("Using {} to read in files.", this.jobs);
 
 		final var stopwatch = StopWatch.create();
 
-		var digestFactory = new DigestStreamFactory(() -> MessageDigest.getInstance("SHA-256"));
-		var cksumFactory = new ChecksumStreamFactory(CRC32::new);
+		final var algorithm = sha256SumPath != null ? HashAlgorithm.sha256 : this.hashAlgorithm;
+		if (algorithm != this.hashAlgorithm) {
+			logger.info("Hashing with {} rather than {} for the SHA dump.", algorithm, this.hashAlgorithm);
+		}
+
+		// Only zips need the CRC32, and nothing gets written on a dry run.
+		final var cksumFactory = !dry && archive.crc32 ? new ChecksumStreamFactory(CRC32::new) : null;
 
 		var root = Path.of(input);
 
-		final InputWorker worker = new InputWorker(root, memoryHog, jobs, digestFactory, cksumFactory, stopwatch);
+		final var cache = new InputCache(memoryHog ? Long.MAX_VALUE : inputCache);
+		if (cache.enabled()) {
+			logger.info("Caching up to {} of input.", Utils.displaySize(cache.budget()));
+		}
+
+		final var hashCache = hashCachePath == null ? HashCache.NONE : HashCache.load(hashCachePath, algorithm);
+
+		final var options = InputWorker.Options.of(algorithm)
+				.withDedup(dedup)
+				.withChecksums(cksumFactory)
+				.withMapThreshold(mmapThreshold)
+				.withChunkThreshold(chunkThreshold)
+				.withSketch(order == Order.similarity)
+				.withRepackRegions(repackRegions)
+				.withTransformRegions(transformRegions)
+				.withRegionStats(regionStats);
+
+		final InputWorker worker = new InputWorker(root, cache, hashCache, jobs, options, stopwatch);
 
 		final var workerReader = executor.scheduleAtFixedRate(
 				worker::log,
@@ -145,67 +390,220 @@ public final class Main implements Callable<Integer> {
 
 		stopwatch.start();
 
-		worker.digest();
+		final WindowedQueue queue;
+		final Thread reader;
+		final Iterator<Holder> holders;
 
-		stopwatch.stop();
-		workerReader.cancel(false);
+		if (streaming && !dry) {
+			logger.info("Streaming to the writer in windows of {} files.", this.streamWindow);
 
-		logger.info("Done!");
-		worker.log();
+			queue = new WindowedQueue(this.streamWindow, this.order);
+			reader = Thread.ofPlatform().name("Reader").start(() -> {
+				try {
+					worker.digest(queue::put);
+				} finally {
+					queue.finish();
+				}
+			});
+			holders = queue;
+		} else {
+			worker.digest();
+			this.finishDigest(worker, hashCache, workerReader, stopwatch);
 
-		if (sha256SumPath != null) {
-			exportSha256Sum(sha256SumPath, worker.map);
-		}
+			if (dry) {
+				this.writeMetrics(worker, null, null);
+				return 0;
+			}
 
-		if (dry) {
-			return 0;
+			queue = null;
+			reader = null;
+			holders = null;
 		}
 
-		final OutputStream outputStream;
-		if ("-".equals(this.output)) {
-			outputStream = new FileOutputStream(FileDescriptor.out);
+		final Collection<Holder> written;
+		if (basePath != null && holders == null) {
+			final var diff = Manifest.diff(basePath, worker.algorithm(), worker.map);
+			logger.info("Against {}: {} paths unchanged, {} removed, {} unique files to write.",
+					basePath, diff.unchanged().size(), diff.removed().size(), diff.changed().size());
+
+			final var list = new ArrayList<>(diff.changed());
+			list.add(diff.index());
+			written = list;
 		} else {
-			outputStream = Files.newOutputStream(Path.of(this.output));
+			written = worker.holders();
 		}
 
 		final var counter = new AtomicInteger();
-		final var countingStream = new CountingOutputStream(outputStream);
+		final CountingOutputStream compressedStream;
+		final CountingOutputStream countingStream;
+		FramedOutputStream framed = null;
+
+		if (compression == null) {
+			if ("-".equals(this.output)) {
+				compressedStream = countingStream = new CountingOutputStream(new FileOutputStream(FileDescriptor.out));
+			} else {
+				// Allows stored payloads to be copied straight from file to file.
+				compressedStream = countingStream = new ChannelOutputStream(FileChannel.open(
+						Path.of(this.output),
+						StandardOpenOption.WRITE,
+						StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING
+				));
+			}
+		} else {
+			logger.info("Compressing with {}", compression);
+			if ("-".equals(this.output)) {
+				compressedStream = new CountingOutputStream(new FileOutputStream(FileDescriptor.out));
+			} else {
+				compressedStream = new CountingOutputStream(Files.newOutputStream(Path.of(this.output)));
+			}
+			if (indexPath != null) {
+				logger.info("Cutting into frames every {} for the index.", Utils.displaySize(indexFrame));
+				framed = new FramedOutputStream(compression, compressedStream);
+				countingStream = new CountingOutputStream(framed);
+			} else {
+				countingStream = new CountingOutputStream(compression.wrap(compressedStream));
+			}
+		}
 
-		stopwatch.reset();
+		var listener = Archiver.Listener.counting(counter);
+		final var index = indexPath == null ? null : new SeekIndex(countingStream, framed, indexFrame);
+		if (index != null) {
+			listener = listener.andThen(index);
+		}
 
+		final var writeStopwatch = StopWatch.create();
 
 		final var scheduled = executor.scheduleAtFixedRate(
 				() -> logger.info(
-						"{} => Committed {} files, streaming {} ({} bytes)",
-						stopwatch,
+						"{} => Committed {} files, streaming {}",
+						writeStopwatch,
 						counter.get(),
-						Utils.displaySize(countingStream.getByteCount()),
-						countingStream.getByteCount()
+						displayStreamed(countingStream, compressedStream)
 				),
 				5,
 				5,
 				TimeUnit.SECONDS
 		);
 
-		stopwatch.start();
+		final var event = new ArchiveEvent();
+		event.begin();
+		writeStopwatch.start();
 
-		archive.toArchiver().archive(countingStream, root, worker.map.values(), counter);
+		final var archiver = archive.toArchiver(level);
+		if (holders != null) {
+			archiver.archive(countingStream, root, holders, listener);
+		} else {
+			archiver.archive(countingStream, root, written, order, listener);
+		}
 
-		stopwatch.stop();
+		writeStopwatch.stop();
 		scheduled.cancel(false);
 
+		event.end();
+		event.archive = archive.name();
+		event.files = counter.get();
+		event.bytes = countingStream.getByteCount();
+		event.compressed = compressedStream.getByteCount();
+		event.commit();
+
+		if (reader != null) {
+			Utils.join(reader);
+			this.finishDigest(worker, hashCache, workerReader, stopwatch);
+		}
+
+		if (index != null) {
+			try {
+				index.write(indexPath, archive, compression == null ? null : compression.compressor());
+				logger.info("Index of {} paths across {} frames available at {}",
+						index.size(), framed == null ? 1 : framed.frames().size(), indexPath);
+			} catch (IOException io) {
+				logger.warn("Cannot write index to {}", indexPath, io);
+			}
+		}
+
 		logger.info(
-				"Archive available. Written {} files, streaming {} ({} bytes). Time taken: {}",
+				"Archive available. Written {} files, streaming {}. Time taken: {}",
 				counter.get(),
-				Utils.displaySize(countingStream.getByteCount()),
-				countingStream.getByteCount(),
-				stopwatch
+				displayStreamed(countingStream, compressedStream),
+				writeStopwatch
 		);
 
+		final var writeMetrics = new Metrics();
+		writeMetrics.put("archive", archive.name());
+		writeMetrics.put("order", order.name());
+		writeMetrics.put("level", level);
+		writeMetrics.put("compression", compression == null ? "none" : compression.toString());
+		writeMetrics.put("files", counter.get());
+		writeMetrics.put("bytes", countingStream.getByteCount());
+		writeMetrics.put("compressedBytes", compressedStream.getByteCount());
+		writeMetrics.put("nanos", writeStopwatch.getNanoTime());
+		writeMetrics.put("mibPerSecond", Metrics.mibPerSecond(countingStream.getByteCount(), writeStopwatch.getNanoTime()));
+		this.writeMetrics(worker, queue, writeMetrics);
+
 		return 0;
 	}
 
-	private static void exportSha256Sum(final Path path, final Map<Sha256HashHolder, Holder> map) {
+	private void writeMetrics(final InputWorker worker, final WindowedQueue queue, final Metrics write) {
+		if (metricsPath == null) {
+			return;
+		}
+
+		final var metrics = new Metrics();
+		worker.report(metrics);
+		if (queue != null) {
+			queue.report(metrics.object("stream"));
+		}
+		if (write != null) {
+			metrics.put("write", write);
+		}
+
+		try {
+			metrics.write(metricsPath);
+			logger.info("Metrics available at {}", metricsPath);
+		} catch (IOException io) {
+			logger.warn("Cannot write metrics to {}", metricsPath, io);
+		}
+	}
+
+	private void finishDigest(final InputWorker worker, final HashCache hashCache, final ScheduledFuture<?> workerReader, final StopWatch stopwatch) {
+		stopwatch.stop();
+		workerReader.cancel(false);
+
+		logger.info("Done!");
+		worker.log();
+
+		try {
+			hashCache.save();
+		} catch (IOException io) {
+			logger.warn("Cannot save hash cache to {}", hashCachePath, io);
+		}
+
+		if (sha256SumPath != null) {
+			exportSha256Sum(sha256SumPath, worker.map);
+		}
+
+		if (manifestPath != null) {
+			try {
+				Manifest.write(manifestPath, worker.algorithm(), worker.map);
+				logger.info("Manifest available at {}", manifestPath);
+			} catch (IOException io) {
+				logger.warn("Cannot export manifest to {}", manifestPath, io);
+			}
+		}
+	}
+
+	private static String displayStreamed(final CountingOutputStream uncompressed, final CountingOutputStream compressed) {
+		final long raw = uncompressed.getByteCount();
+		final String display = Utils.displaySize(raw) + " (" + raw + " bytes)";
+		if (uncompressed == compressed) {
+			return display;
+		}
+		final long out = compressed.getByteCount();
+		return display + " compressed to " + Utils.displaySize(out) + " (" + out + " bytes)";
+	}
+
+	private static void exportSha256Sum(final Path path, final Map<HashKey, Holder> map) {
 		try (final var writer = Files.newBufferedWriter(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
 			 final var formatter = new Formatter(writer);
 			 final var stream = map.entrySet().stream()
@@ -226,4 +624,15 @@ public final class Main implements Callable<Integer> {
 
 		logger.info("SHA dump available at {}", path);
 	}
+
+	static final class SizeConverter implements CommandLine.ITypeConverter<Long> {
+		@Override
+		public Long convert(final String value) {
+			try {
+				return Utils.parseSize(value);
+			} catch (IllegalArgumentException iae) {
+				throw new CommandLine.TypeConversionException("Invalid size '" + value + "': " + iae.getMessage());
+			}
+		}
+	}
 }
@@ -0,0 +1,168 @@
+package gay.ampflower.worldpacker;
+
+import gay.ampflower.worldpacker.io.MinHash;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * What order holders get written in, which decides what an outer compressor gets to see
+ * within its window at once.
+ * <p>
+ * Holders are placed by their first path, as the rest of their paths are usually only references.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+public enum Order {
+	/**
+	 * Smallest first. Cheap, but puts whatever's the same size next to each other, related or not.
+	 */
+	size {
+		@Override
+		public List<Holder> sort(final Collection<Holder> holders) {
+			final var list = new ArrayList<>(holders);
+			list.sort(Comparator.comparingLong(Holder::size));
+			return list;
+		}
+	},
+	/**
+	 * By extension, then path, keeping regions with regions and NBT with NBT wherever they are.
+	 */
+	extension {
+		@Override
+		public List<Holder> sort(final Collection<Holder> holders) {
+			return sorted(holders, Comparator.comparing(Placed::extension).thenComparing(Placed::path));
+		}
+	},
+	/**
+	 * By path, keeping every directory together, as files beside each other tend to be alike.
+	 */
+	directory {
+		@Override
+		public List<Holder> sort(final Collection<Holder> holders) {
+			return sorted(holders, Comparator.comparing(Placed::path));
+		}
+	},
+	/**
+	 * Clusters holders whose {@link MinHash} sketches say they're alike, wherever they are,
+	 * then goes by path as with {@link #directory}, placing each cluster where its first path would go.
+	 * <p>
+	 * Sketches are split into bands of two bins, and any two holders sharing any band land in the same cluster,
+	 * which finds most pairs sharing half their shingles, and few sharing a tenth.
+	 * Holders without a sketch are left on their own.
+	 */
+	similarity {
+		private static final int band = 2;
+
+		@Override
+		public List<Holder> sort(final Collection<Holder> holders) {
+			final var placed = placed(holders);
+			placed.sort(Comparator.comparing(Placed::path));
+
+			final var clusters = new Clusters(placed.size());
+			final var seen = new HashMap<Band, Integer>();
+			for (int i = 0; i < placed.size(); i++) {
+				final var sketch = placed.get(i).holder().sketch();
+				if (sketch == null || !sketch.present()) {
+					continue;
+				}
+				for (int b = 0; b < MinHash.bins; b += band) {
+					// Small files leave bins empty, which says nothing of what they hold.
+					if ((sketch.bin(b) & sketch.bin(b + 1)) == -1L) {
+						continue;
+					}
+					final var first = seen.putIfAbsent(new Band(b, sketch.bin(b), sketch.bin(b + 1)), i);
+					if (first != null) {
+						clusters.union(first, i);
+					}
+				}
+			}
+
+			// Every cluster's members, each already in path order.
+			final var members = new HashMap<Integer, List<Holder>>();
+			for (int i = 0; i < placed.size(); i++) {
+				members.computeIfAbsent(clusters.find(i), $ -> new ArrayList<>()).add(placed.get(i).holder());
+			}
+
+			final var list = new ArrayList<Holder>(placed.size());
+			for (int i = 0; i < placed.size(); i++) {
+				final var cluster = members.remove(clusters.find(i));
+				if (cluster != null) {
+					list.addAll(cluster);
+				}
+			}
+			return list;
+		}
+	};
+
+	/**
+	 * @return The holders in the order they're to be written.
+	 */
+	public abstract List<Holder> sort(final Collection<Holder> holders);
+
+	private static List<Holder> sorted(final Collection<Holder> holders, final Comparator<Placed> comparator) {
+		final var placed = placed(holders);
+		placed.sort(comparator);
+
+		final var list = new ArrayList<Holder>(placed.size());
+		for (final var holder : placed) {
+			list.add(holder.holder());
+		}
+		return list;
+	}
+
+	/**
+	 * Works out where every holder goes once, rather than on every comparison.
+	 */
+	private static List<Placed> placed(final Collection<Holder> holders) {
+		final var placed = new ArrayList<Placed>(holders.size());
+		for (final var holder : holders) {
+			final var path = holder.paths().iterator().next();
+			placed.add(new Placed(holder, path, path.extension()));
+		}
+		return placed;
+	}
+
+	private record Placed(Holder holder, EntryPath path, String extension) {
+	}
+
+	private record Band(int index, long first, long second) {
+	}
+
+	/**
+	 * Union-find over indices, with path halving.
+	 */
+	private static final class Clusters {
+		private final int[] parents;
+
+		Clusters(final int size) {
+			this.parents = new int[size];
+			for (int i = 0; i < size; i++) {
+				parents[i] = i;
+			}
+		}
+
+		int find(int i) {
+			while (parents[i] != i) {
+				parents[i] = parents[parents[i]];
+				i = parents[i];
+			}
+			return i;
+		}
+
+		void union(final int a, final int b) {
+			final int rootA = find(a);
+			final int rootB = find(b);
+			// The lower index is earlier by path, which keeps it the root.
+			if (rootA < rootB) {
+				parents[rootB] = rootA;
+			} else if (rootB < rootA) {
+				parents[rootA] = rootB;
+			}
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package gay.ampflower.worldpacker;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Small thread-safe set of paths, kept sorted in a bare array.
+ * <p>
+ * Nearly every holder only ever has the one path, which this holds without anything else around it,
+ * where a {@link java.util.concurrent.ConcurrentSkipListSet} needs several nodes for even a single path.
+ * Adding is linear in the amount of paths, which is only ever as many as there are duplicates of a file.
+ * <p>
+ * Iterating goes over the paths as they were when the iterator was made, in order.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+public final class PathSet extends AbstractSet<EntryPath> {
+	private static final EntryPath[] EMPTY = new EntryPath[0];
+
+	// Either null, a lone path, or a sorted array of two or more.
+	private Object paths;
+
+	public PathSet() {
+	}
+
+	/**
+	 * @param sorted Paths already sorted and without repeats, which are held onto as is.
+	 */
+	public PathSet(final EntryPath... sorted) {
+		if (sorted.length == 1) {
+			paths = sorted[0];
+		} else if (sorted.length > 1) {
+			paths = sorted;
+		}
+	}
+
+	@Override
+	public synchronized boolean add(final EntryPath path) {
+		if (paths == null) {
+			paths = path;
+			return true;
+		}
+		final var array = array();
+		final int index = Arrays.binarySearch(array, path);
+		if (index >= 0) {
+			return false;
+		}
+
+		final int at = -index - 1;
+		final var grown = new EntryPath[array.length + 1];
+		System.arraycopy(array, 0, grown, 0, at);
+		grown[at] = path;
+		System.arraycopy(array, at, grown, at + 1, array.length - at);
+		paths = grown;
+		return true;
+	}
+
+	@Override
+	public synchronized boolean contains(final Object o) {
+		return o instanceof EntryPath path && Arrays.binarySearch(array(), path) >= 0;
+	}
+
+	@Override
+	public synchronized int size() {
+		if (paths == null) {
+			return 0;
+		}
+		return paths instanceof EntryPath ? 1 : ((EntryPath[]) paths).length;
+	}
+
+	@Override
+	public synchronized Iterator<EntryPath> iterator() {
+		return List.of(array()).iterator();
+	}
+
+	private EntryPath[] array() {
+		if (paths == null) {
+			return EMPTY;
+		}
+		if (paths instanceof EntryPath path) {
+			return new EntryPath[]{path};
+		}
+		return (EntryPath[]) paths;
+	}
+}
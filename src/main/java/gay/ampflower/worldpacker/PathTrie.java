@@ -0,0 +1,45 @@
+package gay.ampflower.worldpacker;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns the directories of every {@link EntryPath} made through it, so that every file in a directory
+ * points at the same chain of directories rather than each holding the entire path.
+ * <p>
+ * Only directories are interned, as every file is only ever seen once.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+public final class PathTrie {
+	private final Map<Path, EntryPath> directories = new ConcurrentHashMap<>();
+
+	/**
+	 * Makes the path for a file, sharing its directories with every other made here.
+	 *
+	 * @param relative The file's path relative to the input.
+	 */
+	public EntryPath path(final Path relative) {
+		final var parent = relative.getParent();
+		return new EntryPath(parent == null ? null : directory(parent), encode(relative));
+	}
+
+	private EntryPath directory(final Path relative) {
+		final var existing = directories.get(relative);
+		if (existing != null) {
+			return existing;
+		}
+
+		final var parent = relative.getParent();
+		final var created = new EntryPath(parent == null ? null : directory(parent), encode(relative));
+		final var raced = directories.putIfAbsent(relative, created);
+		return raced == null ? created : raced;
+	}
+
+	private static byte[] encode(final Path path) {
+		return path.getFileName().toString().getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -3,6 +3,8 @@ package gay.ampflower.worldpacker;// Created 2022-28-09T05:10:24
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Locale;
+
 /**
  * @author Ampflower
  **/
@@ -24,6 +26,27 @@ public final class Utils {
         return bytes + " bytes";
     }
 
+    /**
+     * Parses a size such as {@code 512M}, {@code 1.5GiB} or {@code 4096}, in binary units.
+     */
+    public static long parseSize(String size) {
+        size = size.trim();
+        int end = size.length();
+        while (end > 0 && Character.isLetter(size.charAt(end - 1))) end--;
+        final double value = Double.parseDouble(size.substring(0, end));
+        final long scale = switch (size.substring(end).toLowerCase(Locale.ROOT)) {
+            case "", "b" -> 1;
+            case "k", "kb", "kib" -> KiB;
+            case "m", "mb", "mib" -> MiB;
+            case "g", "gb", "gib" -> GiB;
+            case "t", "tb", "tib" -> TiB;
+            case "p", "pb", "pib" -> PiB;
+            default -> throw new IllegalArgumentException("Unknown size unit in " + size);
+        };
+        if (value < 0) throw new IllegalArgumentException("Negative size " + size);
+        return (long) (value * scale);
+    }
+
     private static String buildDisplaySize(long bytes, String scaleName) {
         int b0 = (int) bytes * iKB / iKiB;
         int i = b0 / iKB, d = b0 % iKB;
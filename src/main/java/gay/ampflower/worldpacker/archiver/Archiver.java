@@ -1,6 +1,11 @@
 package gay.ampflower.worldpacker.archiver;
 
+import gay.ampflower.worldpacker.EntryPath;
 import gay.ampflower.worldpacker.Holder;
+import gay.ampflower.worldpacker.Order;
+import gay.ampflower.worldpacker.compressor.IDeflater;
+import gay.ampflower.worldpacker.compressor.ParallelDeflater;
+import gay.ampflower.worldpacker.compressor.ZipWriter;
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.ArchiveInputStream;
 import org.apache.commons.compress.archivers.ArchiveOutputStream;
@@ -16,14 +21,21 @@ import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
 import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.output.CountingOutputStream;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.FileTime;
 import java.util.Collection;
-import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
@@ -43,21 +55,184 @@ public interface Archiver<I extends InputStream, O extends OutputStream, E> {
 
 	void writeHolderAsEntries(final O output, final Path root, final Holder holder) throws IOException;
 
+	I wrapInputStream(final InputStream input) throws IOException;
+
+	/**
+	 * Reads every file back out of the archive, in the order they're stored.
+	 * Directories are skipped, as every file's path brings its own.
+	 */
+	void read(final I input, final Visitor visitor) throws IOException;
+
+	/**
+	 * Reads every file back out of the archive as streamed.
+	 */
+	default void extract(final InputStream inputStream, final Visitor visitor) throws IOException {
+		try (final var input = this.wrapInputStream(inputStream)) {
+			this.read(input, visitor);
+		}
+	}
+
+	/**
+	 * Archives every holder, in the given order.
+	 */
 	default void archive(
 			final OutputStream outputStream,
 			final Path root,
 			final Collection<Holder> holders,
+			final Order order,
 			final AtomicInteger counter
+	) throws IOException {
+		this.archive(outputStream, root, holders, order, Listener.counting(counter));
+	}
+
+	/**
+	 * Archives every holder, in the given order, telling the listener of each once written.
+	 */
+	default void archive(
+			final OutputStream outputStream,
+			final Path root,
+			final Collection<Holder> holders,
+			final Order order,
+			final Listener listener
+	) throws IOException {
+		this.archive(outputStream, root, order.sort(holders).iterator(), listener);
+	}
+
+	/**
+	 * Archives the holders in the order given, which may still be getting filled in as it's written.
+	 */
+	default void archive(
+			final OutputStream outputStream,
+			final Path root,
+			final Iterator<Holder> holders,
+			final Listener listener
 	) throws IOException {
 		try (outputStream;
-			 final var zip = this.wrapOutputStream(outputStream);
-			 final var stream = holders.stream()) {
-
-			final var itr = stream.sorted(Comparator.comparingLong(Holder::size)).iterator();
-			while (itr.hasNext()) {
-				final var holder = itr.next();
-				this.writeHolderAsEntries(zip, root, holder);
-				counter.addAndGet(holder.paths().size());
+			 final var zip = this.wrapOutputStream(outputStream)) {
+
+			this.write(zip, root, holders, listener);
+		}
+	}
+
+	/**
+	 * Writes every holder in the order given.
+	 */
+	default void write(
+			final O output,
+			final Path root,
+			final Iterator<Holder> holders,
+			final Listener listener
+	) throws IOException {
+		while (holders.hasNext()) {
+			final var holder = holders.next();
+			this.writeHolderAsEntries(output, root, holder);
+			holder.data().release();
+			listener.written(output, holder);
+		}
+	}
+
+	/**
+	 * Told of every holder once it's been written.
+	 */
+	@FunctionalInterface
+	interface Listener {
+		/**
+		 * @param output What the holder was written to, which may still be holding onto some of it.
+		 */
+		void written(final OutputStream output, final Holder holder) throws IOException;
+
+		static Listener counting(final AtomicInteger counter) {
+			return (output, holder) -> counter.addAndGet(holder.paths().size());
+		}
+
+		default Listener andThen(final Listener after) {
+			return (output, holder) -> {
+				this.written(output, holder);
+				after.written(output, holder);
+			};
+		}
+	}
+
+	/**
+	 * Takes every file read back out of an archive.
+	 */
+	interface Visitor {
+		/**
+		 * @param size     The size of the file, or -1 if the archive doesn't say up front.
+		 * @param contents The file's contents, which must be read before returning, as the next file follows on.
+		 */
+		void file(final String name, final long size, final InputStream contents) throws IOException;
+
+		/**
+		 * A path the archive only stores once, pointing at the payload of a path already handed over.
+		 */
+		void duplicate(final String name, final String original) throws IOException;
+
+		/**
+		 * @return Whether the visitor has all it wants, after which reading stops.
+		 */
+		default boolean done() {
+			return false;
+		}
+	}
+
+	/**
+	 * Archivers whose archives can be read from a file by their central directory rather than streamed,
+	 * which sees every path, including those pointing at a payload stored once.
+	 */
+	interface Indexed<I extends InputStream, O extends OutputStream, E> extends Archiver<I, O, E> {
+		default void extract(final Path archive, final Visitor visitor) throws IOException {
+			try (final var zip = ZipFile.builder().setPath(archive).get()) {
+				// Any path pointing at the same local header as one before it is a duplicate of it.
+				final var offsets = new HashMap<Long, String>();
+				final var entries = zip.getEntriesInPhysicalOrder();
+				while (!visitor.done() && entries.hasMoreElements()) {
+					final var entry = entries.nextElement();
+					if (entry.isDirectory()) {
+						continue;
+					}
+					final var original = offsets.putIfAbsent(entry.getLocalHeaderOffset(), entry.getName());
+					if (original != null) {
+						visitor.duplicate(entry.getName(), original);
+						continue;
+					}
+					try (final var contents = zip.getInputStream(entry)) {
+						visitor.file(entry.getName(), entry.getSize(), contents);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Archivers that can take payloads already deflated by a {@link ParallelDeflater}.
+	 * <p>
+	 * When not storing, holders are deflated on a pool of threads while this thread writes them out in order.
+	 */
+	interface Deflating<I extends InputStream, O extends OutputStream, E> extends Archiver<I, O, E> {
+		IDeflater deflater();
+
+		void writeDeflated(final O output, final Path root, final ParallelDeflater.Deflated deflated) throws IOException;
+
+		@Override
+		default void write(
+				final O output,
+				final Path root,
+				final Iterator<Holder> holders,
+				final Listener listener
+		) throws IOException {
+			if (this.deflater().isStored()) {
+				Archiver.super.write(output, root, holders, listener);
+				return;
+			}
+
+			try (final var parallel = new ParallelDeflater(this.deflater(), holders)) {
+				ParallelDeflater.Deflated deflated;
+				while ((deflated = parallel.next()) != null) {
+					this.writeDeflated(output, root, deflated);
+					deflated.holder().data().release();
+					listener.written(output, deflated.holder());
+				}
 			}
 		}
 	}
@@ -71,14 +246,26 @@ public interface Archiver<I extends InputStream, O extends OutputStream, E> {
 				final Path root,
 				final Holder holder
 		) throws IOException {
-			final byte[] array = holder.data().toArray();
-
 			for (final var entry : this.toEntries(holder)) {
 				output.putArchiveEntry(entry);
-				output.write(array);
+				holder.data().writeTo(output);
 				output.closeArchiveEntry();
 			}
 		}
+
+		@Override
+		default void read(final I input, final Visitor visitor) throws IOException {
+			E entry;
+			while (!visitor.done() && (entry = input.getNextEntry()) != null) {
+				if (entry.isDirectory()) {
+					continue;
+				}
+				if (!input.canReadEntryData(entry)) {
+					throw new IOException("Cannot read " + entry.getName() + " out of the archive");
+				}
+				visitor.file(entry.getName(), entry.getSize(), input);
+			}
+		}
 	}
 
 	final class Ar implements Apache<ArArchiveInputStream, ArArchiveOutputStream, ArArchiveEntry> {
@@ -97,6 +284,11 @@ public interface Archiver<I extends InputStream, O extends OutputStream, E> {
 		public ArArchiveOutputStream wrapOutputStream(final OutputStream output) throws IOException {
 			return new ArArchiveOutputStream(output);
 		}
+
+		@Override
+		public ArArchiveInputStream wrapInputStream(final InputStream input) throws IOException {
+			return new ArArchiveInputStream(input);
+		}
 	}
 
 	final class Cpio implements Apache<CpioArchiveInputStream, CpioArchiveOutputStream, CpioArchiveEntry> {
@@ -115,6 +307,11 @@ public interface Archiver<I extends InputStream, O extends OutputStream, E> {
 		public CpioArchiveOutputStream wrapOutputStream(final OutputStream output) throws IOException {
 			return new CpioArchiveOutputStream(output);
 		}
+
+		@Override
+		public CpioArchiveInputStream wrapInputStream(final InputStream input) throws IOException {
+			return new CpioArchiveInputStream(input);
+		}
 	}
 
 	final class Tar implements Apache<TarArchiveInputStream, TarArchiveOutputStream, TarArchiveEntry> {
@@ -140,9 +337,29 @@ public interface Archiver<I extends InputStream, O extends OutputStream, E> {
 			tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
 			return tar;
 		}
+
+		@Override
+		public TarArchiveInputStream wrapInputStream(final InputStream input) throws IOException {
+			return new TarArchiveInputStream(input);
+		}
 	}
 
-	final class Zip implements Apache<ZipArchiveInputStream, ZipArchiveOutputStream, ZipArchiveEntry> {
+	final class Zip implements Apache<ZipArchiveInputStream, ZipArchiveOutputStream, ZipArchiveEntry>,
+			Deflating<ZipArchiveInputStream, ZipArchiveOutputStream, ZipArchiveEntry>,
+			Indexed<ZipArchiveInputStream, ZipArchiveOutputStream, ZipArchiveEntry> {
+		private final IDeflater deflater;
+		private final IDeflater.StreamingDeflater streaming;
+
+		public Zip(final int level) {
+			this.deflater = IDeflater.ofBlock(level);
+			this.streaming = IDeflater.ofStream(level);
+		}
+
+		@Override
+		public IDeflater deflater() {
+			return deflater;
+		}
+
 		@Override
 		public Set<ZipArchiveEntry> toEntries(final Holder holder) {
 			return holder.paths()
@@ -151,6 +368,7 @@ public interface Archiver<I extends InputStream, O extends OutputStream, E> {
 							path.toString()
 					))
 					.peek(zip -> {
+						zip.setMethod(ZipArchiveEntry.STORED);
 						zip.setCrc(holder.crc32());
 						zip.setSize(holder.size());
 						zip.setCompressedSize(holder.size());
@@ -161,12 +379,90 @@ public interface Archiver<I extends InputStream, O extends OutputStream, E> {
 		@Override
 		public ZipArchiveOutputStream wrapOutputStream(final OutputStream output) throws IOException {
 			final var stream = new ZipArchiveOutputStream(output);
-			stream.setLevel(ZipArchiveOutputStream.STORED);
+			stream.setLevel(deflater.level());
 			return stream;
 		}
+
+		@Override
+		public ZipArchiveInputStream wrapInputStream(final InputStream input) throws IOException {
+			return new ZipArchiveInputStream(input);
+		}
+
+		@Override
+		public void writeDeflated(
+				final ZipArchiveOutputStream output,
+				final Path root,
+				final ParallelDeflater.Deflated deflated
+		) throws IOException {
+			final var holder = deflated.holder();
+
+			if (deflated.streamed()) {
+				final var entries = this.toEntries(holder);
+				if (entries.size() == 1) {
+					// Let the stream deflate it itself; it'll fill in the compressed size.
+					final var entry = entries.iterator().next();
+					entry.setMethod(ZipArchiveEntry.DEFLATED);
+					entry.setCompressedSize(ArchiveEntry.SIZE_UNKNOWN);
+					output.putArchiveEntry(entry);
+					holder.data().writeTo(output);
+					output.closeArchiveEntry();
+				} else {
+					writeSpooled(output, holder, entries);
+				}
+				return;
+			}
+
+			if (!deflated.compressed()) {
+				for (final var entry : this.toEntries(holder)) {
+					output.putArchiveEntry(entry);
+					output.write(deflated.data(), 0, deflated.length());
+					output.closeArchiveEntry();
+				}
+				return;
+			}
+
+			for (final var entry : this.toEntries(holder)) {
+				entry.setMethod(ZipArchiveEntry.DEFLATED);
+				entry.setCompressedSize(deflated.length());
+				output.addRawArchiveEntry(entry, new ByteArrayInputStream(deflated.data(), 0, deflated.length()));
+			}
+		}
+
+		/**
+		 * Deflates the holder once off to the side, too large to hold in memory, then copies it in as is for every path,
+		 * rather than having the stream deflate it all over again for each.
+		 */
+		private void writeSpooled(
+				final ZipArchiveOutputStream output,
+				final Holder holder,
+				final Set<ZipArchiveEntry> entries
+		) throws IOException {
+			final var spool = Files.createTempFile("world-packer", ".deflate");
+			try {
+				final var counting = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(spool)));
+				try (counting; final var deflating = streaming.deflate(counting)) {
+					holder.data().writeTo(deflating);
+				}
+
+				for (final var entry : entries) {
+					entry.setMethod(ZipArchiveEntry.DEFLATED);
+					entry.setCompressedSize(counting.getByteCount());
+					try (final var input = new BufferedInputStream(Files.newInputStream(spool))) {
+						output.addRawArchiveEntry(entry, input);
+					}
+				}
+			} finally {
+				Files.deleteIfExists(spool);
+			}
+		}
 	}
 
-	final class JavaZip implements Archiver<ZipInputStream, ZipOutputStream, ZipEntry> {
+	final class JavaZip implements Indexed<ZipInputStream, ZipOutputStream, ZipEntry> {
+		private final int level;
+
+		public JavaZip(final int level) {
+			this.level = level;
+		}
 
 		@Override
 		public Set<ZipEntry> toEntries(final Holder holder) {
@@ -176,14 +472,35 @@ public interface Archiver<I extends InputStream, O extends OutputStream, E> {
 					.peek(zip -> {
 						zip.setCrc(holder.crc32());
 						zip.setSize(holder.size());
-						zip.setCompressedSize(holder.size());
+						// The compressed size is only known up front when storing.
+						if (level == 0) {
+							zip.setMethod(ZipEntry.STORED);
+							zip.setCompressedSize(holder.size());
+						}
 					})
 					.collect(Collectors.toSet());
 		}
 
 		@Override
 		public ZipOutputStream wrapOutputStream(final OutputStream output) throws IOException {
-			return new ZipOutputStream(output);
+			final var stream = new ZipOutputStream(output);
+			stream.setLevel(level);
+			return stream;
+		}
+
+		@Override
+		public ZipInputStream wrapInputStream(final InputStream input) throws IOException {
+			return new ZipInputStream(input);
+		}
+
+		@Override
+		public void read(final ZipInputStream input, final Visitor visitor) throws IOException {
+			ZipEntry entry;
+			while (!visitor.done() && (entry = input.getNextEntry()) != null) {
+				if (!entry.isDirectory()) {
+					visitor.file(entry.getName(), entry.getSize(), input);
+				}
+			}
 		}
 
 		@Override
@@ -192,13 +509,100 @@ public interface Archiver<I extends InputStream, O extends OutputStream, E> {
 				final Path root,
 				final Holder holder
 		) throws IOException {
-			final byte[] array = holder.data().toArray();
-
 			for (final var entry : this.toEntries(holder)) {
 				output.putNextEntry(entry);
-				output.write(array);
+				holder.data().writeTo(output);
 				output.closeEntry();
 			}
 		}
 	}
+
+	/**
+	 * Zip that stores every unique payload once, with each path pointing at it.
+	 *
+	 * @see ZipWriter
+	 */
+	final class DedupZip implements Deflating<ZipArchiveInputStream, ZipWriter, EntryPath>,
+			Indexed<ZipArchiveInputStream, ZipWriter, EntryPath> {
+		private final IDeflater deflater;
+		private final IDeflater.StreamingDeflater streaming;
+
+		public DedupZip(final int level) {
+			this.deflater = IDeflater.ofBlock(level);
+			this.streaming = IDeflater.ofStream(level);
+		}
+
+		@Override
+		public IDeflater deflater() {
+			return deflater;
+		}
+
+		@Override
+		public Set<EntryPath> toEntries(final Holder holder) {
+			return holder.paths();
+		}
+
+		@Override
+		public ZipWriter wrapOutputStream(final OutputStream output) throws IOException {
+			return new ZipWriter(output, streaming);
+		}
+
+		@Override
+		public ZipArchiveInputStream wrapInputStream(final InputStream input) throws IOException {
+			return new ZipArchiveInputStream(input);
+		}
+
+		/**
+		 * Only sees the first path of every payload, as the rest only have their own record in the central directory,
+		 * which can't be streamed. Whole archives are to be extracted from a file instead.
+		 */
+		@Override
+		public void read(final ZipArchiveInputStream input, final Visitor visitor) throws IOException {
+			ZipArchiveEntry entry;
+			while (!visitor.done() && (entry = input.getNextEntry()) != null) {
+				if (!entry.isDirectory()) {
+					visitor.file(entry.getName(), entry.getSize(), input);
+				}
+			}
+		}
+
+		@Override
+		public void writeHolderAsEntries(
+				final ZipWriter output,
+				final Path root,
+				final Holder holder
+		) throws IOException {
+			if (output.reference(holder) || output.putTransferred(holder)) {
+				return;
+			}
+			output.putHolder(holder);
+			holder.data().writeTo(output);
+			output.closeHolder();
+		}
+
+		@Override
+		public void writeDeflated(
+				final ZipWriter output,
+				final Path root,
+				final ParallelDeflater.Deflated deflated
+		) throws IOException {
+			final var holder = deflated.holder();
+
+			if (output.reference(holder)) {
+				return;
+			}
+
+			if (deflated.streamed()) {
+				output.putStreamed(holder);
+				holder.data().writeTo(output);
+				output.closeHolder();
+			} else if (deflated.compressed()) {
+				output.putDeflated(holder, deflated.data(), deflated.length());
+			} else {
+				output.putHolder(holder);
+				output.write(deflated.data(), 0, deflated.length());
+				output.closeHolder();
+			}
+		}
+	}
 }
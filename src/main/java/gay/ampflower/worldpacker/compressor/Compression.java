@@ -0,0 +1,73 @@
+package gay.ampflower.worldpacker.compressor;
+
+import picocli.CommandLine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A compressor along with the level to run it at, as given by {@code <compressor>[:<level>]}.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+public record Compression(Compressor compressor, int level) {
+    // Archivers like to write in small pieces; batch them up before they cross into native code.
+    private static final int bufferSize = 128 * 1024;
+
+    public Compression {
+        if (level < compressor.minLevel || level > compressor.maxLevel) {
+            throw new IllegalArgumentException(compressor + " level must be within " +
+                    compressor.minLevel + " to " + compressor.maxLevel + ": " + level);
+        }
+    }
+
+    public static Compression parse(final String value) {
+        final int split = value.indexOf(':');
+        if (split < 0) {
+            final var compressor = compressor(value);
+            return new Compression(compressor, compressor.defaultLevel);
+        }
+        return new Compression(
+                compressor(value.substring(0, split)),
+                Integer.parseInt(value.substring(split + 1))
+        );
+    }
+
+    private static Compressor compressor(final String name) {
+        try {
+            return Compressor.valueOf(name);
+        } catch (IllegalArgumentException iae) {
+            throw new IllegalArgumentException("Unknown compressor '" + name + "', valid: zstd, lz4, xz", iae);
+        }
+    }
+
+    public OutputStream wrap(final OutputStream output) throws IOException {
+        return new BufferedOutputStream(compressor.wrap(output, level), bufferSize);
+    }
+
+    public InputStream unwrap(final InputStream input) throws IOException {
+        return new BufferedInputStream(compressor.unwrap(input), bufferSize);
+    }
+
+    @Override
+    public String toString() {
+        return compressor + ":" + level;
+    }
+
+    public static final class Converter implements CommandLine.ITypeConverter<Compression> {
+        @Override
+        public Compression convert(final String value) {
+            try {
+                return parse(value);
+            } catch (NumberFormatException nfe) {
+                throw new CommandLine.TypeConversionException("Invalid level in '" + value + "'");
+            } catch (IllegalArgumentException iae) {
+                throw new CommandLine.TypeConversionException(iae.getMessage());
+            }
+        }
+    }
+}
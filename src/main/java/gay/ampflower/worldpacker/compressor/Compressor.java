@@ -0,0 +1,86 @@
+package gay.ampflower.worldpacker.compressor;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+import net.jpountz.xxhash.XXHashFactory;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZInputStream;
+import org.tukaani.xz.XZOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compressors that can be applied to the archive as a whole, in process.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+public enum Compressor {
+    zstd(3, -7, 22) {
+        @Override
+        public OutputStream wrap(final OutputStream output, final int level) throws IOException {
+            final var stream = new ZstdOutputStream(output, level);
+            // Uses zstd's own worker threads, the calling thread only feeds it.
+            stream.setWorkers(Runtime.getRuntime().availableProcessors());
+            return stream;
+        }
+
+        @Override
+        public InputStream unwrap(final InputStream input) throws IOException {
+            return new ZstdInputStream(input);
+        }
+    },
+    lz4(0, 0, 17) {
+        @Override
+        public OutputStream wrap(final OutputStream output, final int level) throws IOException {
+            final var factory = LZ4Factory.fastestInstance();
+            return new LZ4FrameOutputStream(
+                    output,
+                    LZ4FrameOutputStream.BLOCKSIZE.SIZE_4MB,
+                    -1L,
+                    level == 0 ? factory.fastCompressor() : factory.highCompressor(level),
+                    XXHashFactory.fastestInstance().hash32(),
+                    LZ4FrameOutputStream.FLG.Bits.BLOCK_INDEPENDENCE
+            );
+        }
+
+        @Override
+        public InputStream unwrap(final InputStream input) throws IOException {
+            return new LZ4FrameInputStream(input);
+        }
+    },
+    xz(6, 0, 9) {
+        @Override
+        public OutputStream wrap(final OutputStream output, final int level) throws IOException {
+            return new XZOutputStream(output, new LZMA2Options(level));
+        }
+
+        @Override
+        public InputStream unwrap(final InputStream input) throws IOException {
+            return new XZInputStream(input);
+        }
+    };
+
+    public final int defaultLevel, minLevel, maxLevel;
+
+    Compressor(final int defaultLevel, final int minLevel, final int maxLevel) {
+        this.defaultLevel = defaultLevel;
+        this.minLevel = minLevel;
+        this.maxLevel = maxLevel;
+    }
+
+    /**
+     * Wraps the output in this compressor. Closing the returned stream finishes and closes the output.
+     */
+    public abstract OutputStream wrap(final OutputStream output, final int level) throws IOException;
+
+    /**
+     * Wraps the input to decompress it, whatever level it was compressed at.
+     */
+    public abstract InputStream unwrap(final InputStream input) throws IOException;
+}
@@ -0,0 +1,96 @@
+package gay.ampflower.worldpacker.compressor;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compresses into a run of frames that can each be decoded on their own, cut wherever asked,
+ * so that a reader can start decoding at any frame rather than from the start.
+ * <p>
+ * Every frame is a whole stream of the compressor's own, one after another, which zstd, lz4 and xz
+ * all decode as though it were one.
+ * <p>
+ * Flushing doesn't reach the compressor, so that flushing to learn where an entry ends costs it nothing;
+ * only cutting and closing do.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+public final class FramedOutputStream extends OutputStream {
+    private final Compression compression;
+    private final CountingOutputStream compressed;
+    private final List<Frame> frames = new ArrayList<>();
+
+    private OutputStream frame;
+    private long written;
+
+    /**
+     * @param compressed Where every frame goes, counting how far into it each starts.
+     */
+    public FramedOutputStream(final Compression compression, final CountingOutputStream compressed) throws IOException {
+        this.compression = compression;
+        this.compressed = compressed;
+        this.start();
+    }
+
+    private void start() throws IOException {
+        frames.add(new Frame(written, compressed.getByteCount()));
+        frame = compression.wrap(CloseShieldOutputStream.wrap(compressed));
+    }
+
+    /**
+     * Finishes the current frame, starting the next from here on. Does nothing if the frame's empty.
+     */
+    public void cut() throws IOException {
+        if (this.pending() == 0L) {
+            return;
+        }
+        frame.close();
+        this.start();
+    }
+
+    /**
+     * @return How much has been written into the current frame.
+     */
+    public long pending() {
+        return written - frames.get(frames.size() - 1).uncompressed();
+    }
+
+    /**
+     * @return Where every frame starts, in order.
+     */
+    public List<Frame> frames() {
+        return frames;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        frame.write(b);
+        written++;
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        frame.write(b, off, len);
+        written += len;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (compressed) {
+            frame.close();
+        }
+    }
+
+    /**
+     * @param uncompressed Where the frame starts within what was written.
+     * @param compressed   Where the frame starts within what was compressed.
+     */
+    public record Frame(long uncompressed, long compressed) {
+    }
+}
@@ -1,28 +1,114 @@
 package gay.ampflower.worldpacker.compressor;// Created 2022-11-09T22:36:56
 
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
 /**
+ * Raw deflate, as stored within zips.
+ * <p>
+ * Block deflaters compress an entire entry in one call, and are safe to call from any thread.
+ * Entries at or above {@link #libdeflateLimit} are expected to go through the {@link StreamingDeflater} instead.
+ *
  * @author Ampflower
  * @since ${version}
  **/
 public abstract class IDeflater {
     public static final long libdeflateLimit = 1024 * 1024 * 32;
 
-    public static IDeflater ofBlock() {
-        return new LibDeflate();
+    protected final int level;
+
+    // Deflaters hold onto native memory; keep one per thread rather than one per entry.
+    private final ThreadLocal<Deflater> deflaters;
+
+    IDeflater(final int level) {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Level must be within 0 to 9: " + level);
+        }
+        this.level = level;
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level, true));
     }
 
-    public static StreamingDeflater ofStream() {
-        return new ZipDeflate();
+    public static IDeflater ofBlock(final int level) {
+        return new LibDeflate(level);
     }
 
-    public interface StreamingDeflater {
+    public static StreamingDeflater ofStream(final int level) {
+        return new ZipDeflate(level);
+    }
+
+    public int level() {
+        return level;
+    }
+
+    /**
+     * @return Whether this deflater doesn't compress at all, and entries should be stored as is.
+     */
+    public boolean isStored() {
+        return level == Deflater.NO_COMPRESSION;
+    }
+
+    /**
+     * Deflates the entire input as a single raw deflate stream.
+     *
+     * @return The amount of bytes written to output, or -1 if it wouldn't fit,
+     * in which case the input is better off stored.
+     */
+    public int deflate(final byte[] input, final int inputLength, final byte[] output) {
+        final var deflater = deflaters.get();
+        try {
+            deflater.setInput(input, 0, inputLength);
+            deflater.finish();
 
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == output.length) {
+                    return -1;
+                }
+                length += deflater.deflate(output, length, output.length - length);
+            }
+            return length;
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    public interface StreamingDeflater {
+        /**
+         * Wraps the sink with a raw deflate stream.
+         * <p>
+         * Closing the returned stream finishes the deflate stream, but leaves the sink open.
+         */
+        OutputStream deflate(OutputStream sink);
     }
 
     private static final class LibDeflate extends IDeflater {
+        LibDeflate(final int level) {
+            super(level);
+        }
     }
 
     private static final class ZipDeflate extends IDeflater implements StreamingDeflater {
+        ZipDeflate(final int level) {
+            super(level);
+        }
 
+        @Override
+        public OutputStream deflate(final OutputStream sink) {
+            final var deflater = new Deflater(level, true);
+            return new DeflaterOutputStream(CloseShieldOutputStream.wrap(sink), deflater, 65536) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        deflater.end();
+                    }
+                }
+            };
+        }
     }
 }
@@ -0,0 +1,137 @@
+package gay.ampflower.worldpacker.compressor;
+
+import gay.ampflower.worldpacker.Holder;
+import gay.ampflower.worldpacker.Utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Deflates holders on a pool of worker threads, handing them back in the order they came in.
+ * <p>
+ * Only holders below {@link IDeflater#libdeflateLimit} are deflated here; anything larger is
+ * handed back as is for the writer to stream through a {@link IDeflater.StreamingDeflater}.
+ * <p>
+ * The amount of work in flight is limited by both count and size, so that memory use stays
+ * proportional to the thread count rather than the input.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+public final class ParallelDeflater implements AutoCloseable {
+    private static final long bytesPerThread = 8 * Utils.MiB;
+
+    private final IDeflater deflater;
+    private final Iterator<Holder> source;
+    private final ExecutorService pool;
+
+    private final ArrayDeque<Future<Deflated>> window = new ArrayDeque<>();
+    private final int maxCount;
+    private final long maxBytes;
+    private long bytes;
+
+    public ParallelDeflater(final IDeflater deflater, final Iterator<Holder> source, final int threads) {
+        this.deflater = deflater;
+        this.source = source;
+        this.pool = Executors.newFixedThreadPool(threads, runnable -> {
+            final var thread = new Thread(runnable, "Deflater");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.maxCount = threads * 4;
+        this.maxBytes = threads * bytesPerThread;
+    }
+
+    public ParallelDeflater(final IDeflater deflater, final Iterator<Holder> source) {
+        this(deflater, source, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return The next holder in order, or null if there's nothing left.
+     */
+    public Deflated next() throws IOException {
+        fill();
+
+        final var future = window.poll();
+        if (future == null) {
+            return null;
+        }
+
+        final Deflated deflated;
+        try {
+            deflated = future.get();
+        } catch (InterruptedException interrupted) {
+            throw new InterruptedIOException("Interrupted while waiting on deflate");
+        } catch (ExecutionException execution) {
+            if (execution.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw new IOException("Deflate failed", execution.getCause());
+        }
+
+        // Streamed holders never counted towards what's in flight.
+        if (!deflated.streamed()) {
+            bytes -= deflated.holder().size();
+        }
+        return deflated;
+    }
+
+    private void fill() {
+        // Always allow at least one in flight, else the writer would stall forever on a large holder.
+        while (source.hasNext() && (window.isEmpty() || (window.size() < maxCount && bytes < maxBytes))) {
+            final var holder = source.next();
+
+            if (holder.size() >= IDeflater.libdeflateLimit) {
+                // The writer streams it itself, nothing to hold onto.
+                window.add(CompletableFuture.completedFuture(new Deflated(holder, null, 0, false)));
+                continue;
+            }
+
+            bytes += holder.size();
+            window.add(pool.submit(() -> deflate(holder)));
+        }
+    }
+
+    private Deflated deflate(final Holder holder) {
+        final byte[] input;
+        try {
+            input = holder.data().toArray();
+        } catch (IOException io) {
+            throw new UncheckedIOException(io);
+        }
+
+        final var output = new byte[input.length];
+        final int length = deflater.deflate(input, input.length, output);
+
+        if (length < 0) {
+            return new Deflated(holder, input, input.length, false);
+        }
+        return new Deflated(holder, output, length, true);
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * A holder's payload, ready to be written.
+     *
+     * @param data       The payload, or null if the holder is too large and must be streamed.
+     * @param length     The amount of bytes in data that make up the payload.
+     * @param compressed Whether the payload was deflated, else it's stored as is.
+     */
+    public record Deflated(Holder holder, byte[] data, int length, boolean compressed) {
+        public boolean streamed() {
+            return data == null;
+        }
+    }
+}
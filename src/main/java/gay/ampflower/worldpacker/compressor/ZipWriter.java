@@ -1,67 +1,520 @@
 package gay.ampflower.worldpacker.compressor;// Created 2022-11-09T22:33:07
 
+import gay.ampflower.worldpacker.Data;
+import gay.ampflower.worldpacker.EntryPath;
+import gay.ampflower.worldpacker.Holder;
+import gay.ampflower.worldpacker.io.ChannelOutputStream;
+
 import java.io.IOException;
 import java.io.OutputStream;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.VarHandle;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.zip.ZipException;
 
 /**
  * Class dedicated to writing a deduplicated zip.
  * <p>
  * Works in a similar manner as a zip-bomb with overlapping the records for the files,
  * but without any side effects with Deflate directly.
+ * <p>
+ * Every {@link Holder} gets exactly one local file header followed by its payload,
+ * with the header named after the first of its paths. Every path then gets its own
+ * central directory record, all of which point at that one local file header.
+ * Java's {@link java.util.zip.ZipFile} and commons-compress' {@code ZipFile}, as used by
+ * {@code extract}, go by the central directory alone and see each path as its own file.
+ * Python's {@code zipfile} refuses any path not named by the local header, and builds of
+ * {@code unzip} patched against overlapping zip bombs refuse the archive outright.
+ * <p>
+ * A holder sharing its {@link Data} with one already written, as is the case when
+ * duplicates are found after the original was handed to the writer, only has its
+ * paths added, pointing at the original payload.
+ * <p>
+ * Payloads may be stored, handed over already deflated, or deflated while streaming,
+ * the latter of which is followed by a data descriptor as the compressed size isn't
+ * known until the end.
+ * <p>
+ * Zip64 records are emitted only when a size, an offset or the entry count no longer
+ * fits in the classic fields.
  *
  * @author Ampflower
  * @see <a href="https://pkware.cachefly.net/webdocs/APPNOTE/APPNOTE-6.3.9.TXT">PKZip Format Specification</a>
  * @since ${version}
  **/
-public class ZipWriter implements AutoCloseable {
+public class ZipWriter extends OutputStream {
     private static final int
             localFileHeaderSignature = 0x04034b50,
             centralFileHeaderSignature = 0x02014b50,
-            digitalSignatureSignature = 0x05054b50;
+            dataDescriptorSignature = 0x08074b50,
+            digitalSignatureSignature = 0x05054b50,
+            zip64EndOfCentralDirectorySignature = 0x06064b50,
+            zip64EndOfCentralDirectoryLocatorSignature = 0x07064b50,
+            endOfCentralDirectorySignature = 0x06054b50;
     private static final short
             pkZipHeaderSignature = 0x4b50,
-            versionNeededToExtract = 0x0;
+            versionNeededToExtract = 10,
+            versionNeededForDeflate = 20,
+            versionNeededForZip64 = 45,
+            // Unix, 4.5
+            versionMadeBy = (3 << 8) | 45;
+    private static final short
+            utf8Flag = 0x0800,
+            dataDescriptorFlag = 0x0008,
+            zip64ExtraTag = 0x0001,
+            methodStored = 0,
+            methodDeflated = 8;
+    // 1980-01-01T00:00:00, the earliest a DOS timestamp can go.
+    private static final short
+            dosTime = 0,
+            dosDate = (1 << 5) | 1;
+    // -rw-r--r--, regular file
+    private static final int externalAttributes = 0100644 << 16;
+
+    private static final long zip32Limit = 0xFFFFFFFFL;
+    // Deflate may expand incompressible input a little; leave plenty of room for it.
+    private static final long streamedZip64Limit = zip32Limit - (zip32Limit >>> 8);
+    private static final int zip16Limit = 0xFFFF;
 
     // Necessary VarHandles for writing a valid PKZip file.
+    private static final VarHandle leLongHandle = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
     private static final VarHandle leIntHandle = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
     private static final VarHandle leShortHandle = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
     private static final VarHandle beIntHandle = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
-    private static final VarHandle beShortHandle = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle beShortHandle = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
 
-    private static final ArrayList<ZipEntry> entries = new ArrayList<>();
+    private final ArrayList<ZipEntry> entries = new ArrayList<>();
+    private final IdentityHashMap<Data, LocalRecord> written = new IdentityHashMap<>();
 
     private final byte[] buffer = new byte[8192];
     private int index;
 
+    // Bytes already handed to the underlying stream; the true position is this plus index.
+    private long flushed;
+
+    private LocalRecord current;
+    private Holder currentHolder;
+    private List<byte[]> currentNames;
+    // Uncompressed bytes given to write, and the bytes that actually made it to the archive.
+    private long currentWritten;
+    private long currentCompressed;
+    private OutputStream sink;
+
+    private final OutputStream raw = new OutputStream() {
+        @Override
+        public void write(final int b) throws IOException {
+            ensure(1);
+            buffer[index++] = (byte) b;
+            currentCompressed++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            writeBytes(b, off, len);
+            currentCompressed += len;
+        }
+    };
+
     private final OutputStream stream;
-    private final IDeflater deflater;
+    private final IDeflater.StreamingDeflater deflater;
 
-    public ZipWriter(OutputStream stream, IDeflater deflater) {
+    public ZipWriter(OutputStream stream, IDeflater.StreamingDeflater deflater) {
         this.stream = stream;
         this.deflater = deflater;
     }
 
+    /**
+     * Registers every path of the holder against an earlier payload with the same data, if there is one.
+     *
+     * @return Whether the holder was already written, and nothing more needs to be done.
+     */
+    public boolean reference(final Holder holder) throws IOException {
+        final var record = written.get(holder.data());
+        if (record == null) {
+            return false;
+        }
+        for (final var path : holder.paths()) {
+            entries.add(new ZipEntry(record, encode(path)));
+        }
+        return true;
+    }
+
+    /**
+     * Starts the payload for the given holder, registering every path it has.
+     * The payload must be written in full before {@link #closeHolder()} is called.
+     */
+    public void putHolder(final Holder holder) throws IOException {
+        begin(holder, new LocalRecord(
+                utf8Flag,
+                methodStored,
+                (int) holder.crc32(),
+                holder.size(),
+                holder.size(),
+                position(),
+                holder.size() >= zip32Limit
+        ));
+        sink = raw;
+    }
+
+    /**
+     * Writes the given holder with an already deflated payload, registering every path it has.
+     */
+    public void putDeflated(final Holder holder, final byte[] data, final int length) throws IOException {
+        begin(holder, new LocalRecord(
+                utf8Flag,
+                methodDeflated,
+                (int) holder.crc32(),
+                length,
+                holder.size(),
+                position(),
+                holder.size() >= zip32Limit
+        ));
+        sink = raw;
+        write(data, 0, length);
+        // The write was of the compressed form.
+        currentWritten = holder.size();
+        closeHolder();
+    }
+
+    /**
+     * Starts the payload for the given holder, which will be deflated as it's written,
+     * registering every path it has.
+     * The payload must be written in full before {@link #closeHolder()} is called.
+     */
+    public void putStreamed(final Holder holder) throws IOException {
+        if (deflater == null) {
+            throw new IllegalStateException("No deflater to stream with");
+        }
+        begin(holder, new LocalRecord(
+                (short) (utf8Flag | dataDescriptorFlag),
+                methodDeflated,
+                0,
+                0,
+                0,
+                position(),
+                holder.size() >= streamedZip64Limit
+        ));
+        sink = deflater.deflate(raw);
+    }
+
+    /**
+     * Writes the given holder stored, copying its payload straight into the file when writing to one,
+     * registering every path it has.
+     *
+     * @return Whether the holder was written, else it must be written by {@link #putHolder(Holder)}.
+     */
+    public boolean putTransferred(final Holder holder) throws IOException {
+        if (!(stream instanceof ChannelOutputStream channel)) {
+            return false;
+        }
+        putHolder(holder);
+        flushBuffer();
+        final long length = channel.transferFrom(holder.data());
+        flushed += length;
+        currentWritten += length;
+        currentCompressed += length;
+        closeHolder();
+        return true;
+    }
+
+    private void begin(final Holder holder, final LocalRecord record) throws IOException {
+        if (current != null) {
+            throw new IllegalStateException("Holder still open at " + current.headerOffset());
+        }
+
+        final var names = new ArrayList<byte[]>();
+        for (final var path : holder.paths()) {
+            names.add(encode(path));
+        }
+        if (names.isEmpty()) {
+            throw new IllegalArgumentException("Holder has no paths: " + holder);
+        }
+
+        current = record;
+        currentHolder = holder;
+        currentNames = names;
+        currentWritten = 0;
+        currentCompressed = 0;
+
+        writeLocalFileHeader(record, names.get(0));
+    }
+
+    public void closeHolder() throws IOException {
+        if (current == null) {
+            throw new IllegalStateException("No holder open");
+        }
+
+        var record = current;
+        if (sink != raw) {
+            // Finishes the deflate stream.
+            sink.close();
+            record = new LocalRecord(
+                    record.gpBitFlag(),
+                    record.compressionMethod(),
+                    (int) currentHolder.crc32(),
+                    currentCompressed,
+                    currentWritten,
+                    record.headerOffset(),
+                    record.zip64()
+            );
+            writeDataDescriptor(record);
+        }
+
+        if (currentWritten != currentHolder.size() || currentCompressed != record.compressedSize()) {
+            throw new ZipException("Holder at " + record.headerOffset() + " expected " +
+                    currentHolder.size() + " bytes, got " + currentWritten);
+        }
+
+        for (final byte[] name : currentNames) {
+            entries.add(new ZipEntry(record, name));
+        }
+        written.put(currentHolder.data(), record);
+
+        current = null;
+        currentHolder = null;
+        currentNames = null;
+        sink = null;
+    }
+
+    /**
+     * @return The amount of bytes written to this zip so far.
+     */
+    public long position() {
+        return flushed + index;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        sink.write(b);
+        currentWritten++;
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        sink.write(b, off, len);
+        currentWritten += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        stream.flush();
+    }
+
     @Override
     public void close() throws IOException {
+        try (stream) {
+            if (current != null) {
+                throw new ZipException("Holder at " + current.headerOffset() + " was never closed");
+            }
+            writeCentralDirectory();
+            flushBuffer();
+        }
     }
 
-    private record ZipEntry(
+    private void writeLocalFileHeader(final LocalRecord record, final byte[] name) throws IOException {
+        final boolean zip64 = record.zip64();
+
+        ensure(30);
+        putInt(localFileHeaderSignature);
+        putShort(record.versionNeeded(zip64));
+        putShort(record.gpBitFlag());
+        putShort(record.compressionMethod());
+        putShort(dosTime);
+        putShort(dosDate);
+        putInt(record.crc32());
+        putInt(zip64 ? -1 : (int) record.compressedSize());
+        putInt(zip64 ? -1 : (int) record.uncompressedSize());
+        putShort((short) name.length);
+        putShort((short) (zip64 ? 20 : 0));
+        writeBytes(name, 0, name.length);
+
+        if (zip64) {
+            ensure(20);
+            putShort(zip64ExtraTag);
+            putShort((short) 16);
+            putLong(record.uncompressedSize());
+            putLong(record.compressedSize());
+        }
+    }
+
+    private void writeDataDescriptor(final LocalRecord record) throws IOException {
+        ensure(24);
+        putInt(dataDescriptorSignature);
+        putInt(record.crc32());
+        if (record.zip64()) {
+            putLong(record.compressedSize());
+            putLong(record.uncompressedSize());
+        } else {
+            putInt((int) record.compressedSize());
+            putInt((int) record.uncompressedSize());
+        }
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        final long directoryOffset = position();
+
+        for (final var entry : entries) {
+            writeCentralFileHeader(entry);
+        }
+
+        final long directorySize = position() - directoryOffset;
+        final int count = entries.size();
+
+        if (count >= zip16Limit || directoryOffset >= zip32Limit || directorySize >= zip32Limit) {
+            final long zip64Offset = position();
+
+            ensure(56 + 20);
+            putInt(zip64EndOfCentralDirectorySignature);
+            putLong(44);
+            putShort(versionMadeBy);
+            putShort(versionNeededForZip64);
+            putInt(0);
+            putInt(0);
+            putLong(count);
+            putLong(count);
+            putLong(directorySize);
+            putLong(directoryOffset);
+
+            putInt(zip64EndOfCentralDirectoryLocatorSignature);
+            putInt(0);
+            putLong(zip64Offset);
+            putInt(1);
+        }
+
+        ensure(22);
+        putInt(endOfCentralDirectorySignature);
+        putShort((short) 0);
+        putShort((short) 0);
+        putShort((short) Math.min(count, zip16Limit));
+        putShort((short) Math.min(count, zip16Limit));
+        putInt((int) Math.min(directorySize, zip32Limit));
+        putInt((int) Math.min(directoryOffset, zip32Limit));
+        putShort((short) 0);
+    }
+
+    private void writeCentralFileHeader(final ZipEntry entry) throws IOException {
+        final var record = entry.record();
+        final byte[] name = entry.name();
+
+        final boolean zip64Sizes = record.requiresZip64Sizes();
+        final boolean zip64Offset = record.headerOffset() >= zip32Limit;
+        final int extraLength = (zip64Sizes ? 16 : 0) + (zip64Offset ? 8 : 0);
+
+        ensure(46);
+        putInt(centralFileHeaderSignature);
+        putShort(versionMadeBy);
+        putShort(record.versionNeeded(extraLength != 0));
+        putShort(record.gpBitFlag());
+        putShort(record.compressionMethod());
+        putShort(dosTime);
+        putShort(dosDate);
+        putInt(record.crc32());
+        putInt(zip64Sizes ? -1 : (int) record.compressedSize());
+        putInt(zip64Sizes ? -1 : (int) record.uncompressedSize());
+        putShort((short) name.length);
+        putShort((short) (extraLength == 0 ? 0 : extraLength + 4));
+        // Comment length, disk start, internal attributes
+        putShort((short) 0);
+        putShort((short) 0);
+        putShort((short) 0);
+        putInt(externalAttributes);
+        putInt(zip64Offset ? -1 : (int) record.headerOffset());
+        writeBytes(name, 0, name.length);
+
+        if (extraLength != 0) {
+            ensure(4 + extraLength);
+            putShort(zip64ExtraTag);
+            putShort((short) extraLength);
+            if (zip64Sizes) {
+                putLong(record.uncompressedSize());
+                putLong(record.compressedSize());
+            }
+            if (zip64Offset) {
+                putLong(record.headerOffset());
+            }
+        }
+    }
+
+    private static byte[] encode(final EntryPath path) throws ZipException {
+        final byte[] name = path.encoded();
+        if (name.length > zip16Limit) {
+            throw new ZipException("Name too long: " + path);
+        }
+        return name;
+    }
+
+    private void ensure(final int length) throws IOException {
+        if (index + length > buffer.length) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (index > 0) {
+            stream.write(buffer, 0, index);
+            flushed += index;
+            index = 0;
+        }
+    }
+
+    private void writeBytes(final byte[] b, final int off, final int len) throws IOException {
+        if (len >= buffer.length) {
+            flushBuffer();
+            stream.write(b, off, len);
+            flushed += len;
+            return;
+        }
+        ensure(len);
+        System.arraycopy(b, off, buffer, index, len);
+        index += len;
+    }
+
+    private void putLong(final long value) {
+        leLongHandle.set(buffer, index, value);
+        index += 8;
+    }
+
+    private void putInt(final int value) {
+        leIntHandle.set(buffer, index, value);
+        index += 4;
+    }
+
+    private void putShort(final short value) {
+        leShortHandle.set(buffer, index, value);
+        index += 2;
+    }
+
+    /**
+     * The part of an entry shared between every path pointing at the same payload.
+     */
+    private record LocalRecord(
             short gpBitFlag,
             short compressionMethod,
-            short lastModFileTime,
-            short lastModFileDate,
-            // The following three are reused for the data descriptor
             int crc32,
-            int compressedSize,
-            int uncompressedSize,
-            byte[] name,
-            // Not for central directory
-            int dataOffset,
-            int locationOnDisc
+            long compressedSize,
+            long uncompressedSize,
+            long headerOffset,
+            // Whether the local header and data descriptor carry Zip64 sizes
+            boolean zip64
+    ) {
+        boolean requiresZip64Sizes() {
+            return compressedSize >= zip32Limit || uncompressedSize >= zip32Limit;
+        }
+
+        short versionNeeded(final boolean zip64) {
+            if (zip64) {
+                return versionNeededForZip64;
+            }
+            return compressionMethod == methodDeflated ? versionNeededForDeflate : versionNeededToExtract;
+        }
+    }
+
+    private record ZipEntry(
+            LocalRecord record,
+            byte[] name
     ) {
     }
 }
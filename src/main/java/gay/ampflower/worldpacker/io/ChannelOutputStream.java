@@ -0,0 +1,46 @@
+package gay.ampflower.worldpacker.io;
+
+import gay.ampflower.worldpacker.Data;
+import org.apache.commons.io.output.CountingOutputStream;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+/**
+ * Counting stream over a file, which can also have data copied straight into the file.
+ * <p>
+ * Copies go through {@link Data#transferTo(java.nio.channels.WritableByteChannel)}, letting the kernel
+ * move the bytes from file to file where it can, rather than passing them through the heap.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+public final class ChannelOutputStream extends CountingOutputStream {
+	private final FileChannel channel;
+	private long transferred;
+
+	public ChannelOutputStream(final FileChannel channel) {
+		super(Channels.newOutputStream(channel));
+		this.channel = channel;
+	}
+
+	/**
+	 * Copies the data to the end of the file.
+	 *
+	 * @return The amount of bytes copied.
+	 */
+	public long transferFrom(final Data data) throws IOException {
+		flush();
+		final long length = data.transferTo(channel);
+		synchronized (this) {
+			transferred += length;
+		}
+		return length;
+	}
+
+	@Override
+	public synchronized long getByteCount() {
+		return super.getByteCount() + transferred;
+	}
+}
@@ -18,13 +18,17 @@ public final class ChecksumStreamFactory extends StreamFactory<Checksum> {
 
     public StreamChecksumPair of(InputStream stream) {
         var checksum = getHasher();
-        return new StreamChecksumPair(new CheckedInputStream(stream, checksum), checksum);
+        return new StreamChecksumPair(new CheckedInputStream(stream, checksum), checksum, this);
     }
 
-    public record StreamChecksumPair(CheckedInputStream inputStream, Checksum checksum) implements AutoCloseable {
+    public record StreamChecksumPair(CheckedInputStream inputStream, Checksum checksum, ChecksumStreamFactory factory) implements AutoCloseable {
         @Override
         public void close() throws IOException {
-            inputStream.close();
+            try {
+                inputStream.close();
+            } finally {
+                factory.release(checksum);
+            }
         }
     }
 }
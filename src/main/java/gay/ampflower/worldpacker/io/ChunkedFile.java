@@ -0,0 +1,112 @@
+package gay.ampflower.worldpacker.io;
+
+import gay.ampflower.worldpacker.HashKey;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A file stored as the list of its content-defined chunks, with every chunk stored once by its key under
+ * {@link #chunkDirectory}, so that files that are mostly the same only store what's different once.
+ * <p>
+ * The file is stored under its own name with {@link #extension} appended, laid out as described
+ * in {@code SPECIFICATION.md}.
+ *
+ * @author Ampflower
+ * @see FastCdc
+ * @since ${version}
+ **/
+public final class ChunkedFile {
+	/**
+	 * Appended to the name of every file stored chunked.
+	 */
+	public static final String extension = ".wpc";
+
+	/**
+	 * Where every chunk goes, named by its key.
+	 */
+	public static final Path chunkDirectory = Path.of(".world-packer", "chunks");
+
+	private static final int magic = 0x57504346;
+	private static final int version = 1;
+
+	private ChunkedFile() {
+	}
+
+	/**
+	 * @return Where the chunk with the given key goes.
+	 */
+	public static Path chunkPath(final HashKey key) {
+		return chunkDirectory.resolve(key.toString());
+	}
+
+	/**
+	 * Lists the chunks of a file, in order.
+	 *
+	 * @param algorithm What the chunks are keyed by.
+	 */
+	public static byte[] write(final HashAlgorithm algorithm, final List<FileHasher.Chunk> chunks) throws IOException {
+		final var bytes = new ByteArrayOutputStream(21 + chunks.size() * 36);
+		try (final var output = new DataOutputStream(bytes)) {
+			output.writeInt(magic);
+			output.writeInt(version);
+			output.writeByte(algorithm.id);
+			output.writeLong(chunks.stream().mapToLong(chunk -> chunk.hashed().size()).sum());
+
+			output.writeInt(chunks.size());
+			for (final var chunk : chunks) {
+				output.write(chunk.hashed().key().hash());
+				output.writeInt((int) chunk.hashed().size());
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Reads back the chunks a file was listed as.
+	 *
+	 * @throws IOException If the listing is malformed.
+	 */
+	public static Listing read(final byte[] listing) throws IOException {
+		try (final var input = new DataInputStream(new ByteArrayInputStream(listing))) {
+			if (input.readInt() != magic || input.readInt() != version) {
+				throw new IOException("Not a chunked file this understands");
+			}
+			final var algorithm = HashAlgorithm.byId(input.readUnsignedByte());
+			if (algorithm == null) {
+				throw new IOException("Chunks are keyed by an unknown algorithm");
+			}
+			final long size = input.readLong();
+
+			final int count = input.readInt();
+			if (count < 0 || count > listing.length / 36) {
+				throw new IOException("Chunked file claims " + count + " chunks");
+			}
+			final var chunks = new ArrayList<Listed>(count);
+			final var hash = new byte[32];
+			for (int i = 0; i < count; i++) {
+				input.readFully(hash);
+				chunks.add(new Listed(new HashKey(hash), input.readInt()));
+			}
+			return new Listing(algorithm, size, chunks);
+		} catch (EOFException truncated) {
+			throw new IOException("Chunked file is truncated", truncated);
+		}
+	}
+
+	/**
+	 * @param size The size of the whole file.
+	 */
+	public record Listing(HashAlgorithm algorithm, long size, List<Listed> chunks) {
+	}
+
+	public record Listed(HashKey key, int length) {
+	}
+}
@@ -0,0 +1,21 @@
+package gay.ampflower.worldpacker.io;
+
+/**
+ * How the reader goes about finding duplicates.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+public enum Dedup {
+	/**
+	 * Hashes every file in full as soon as it's found.
+	 */
+	full,
+	/**
+	 * Groups files by size first, then samples the head and tail of those sharing a size,
+	 * only hashing in full those that still match. Everything else only gets its CRC32.
+	 * <p>
+	 * Needs the entire input to be walked before anything is hashed.
+	 */
+	staged,
+}
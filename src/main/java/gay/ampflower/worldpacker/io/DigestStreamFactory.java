@@ -17,14 +17,18 @@ public final class DigestStreamFactory extends StreamFactory<MessageDigest> {
 
     public StreamDigestPair of(InputStream stream) {
         var digest = getHasher();
-        return new StreamDigestPair(new DigestInputStream(stream, digest), digest);
+        return new StreamDigestPair(new DigestInputStream(stream, digest), digest, this);
     }
 
-    public record StreamDigestPair(DigestInputStream inputStream, MessageDigest digest) implements AutoCloseable {
+    public record StreamDigestPair(DigestInputStream inputStream, MessageDigest digest, DigestStreamFactory factory) implements AutoCloseable {
 
         @Override
         public void close() throws IOException {
-            inputStream.close();
+            try {
+                inputStream.close();
+            } finally {
+                factory.release(digest);
+            }
         }
     }
 }
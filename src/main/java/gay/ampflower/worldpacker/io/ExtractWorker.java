@@ -0,0 +1,582 @@
+package gay.ampflower.worldpacker.io;
+
+import gay.ampflower.worldpacker.HashKey;
+import gay.ampflower.worldpacker.Utils;
+import gay.ampflower.worldpacker.archiver.Archiver;
+import gay.ampflower.worldpacker.mcregion.RegionTransform;
+import gay.ampflower.worldpacker.metrics.Metrics;
+import org.apache.commons.lang3.time.StopWatch;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Writes out every file read back out of an archive, with the archive decoded on the calling thread
+ * and files written on virtual threads, limited by a {@link JobLimiter}.
+ * <p>
+ * Files up to {@link #bufferThreshold} are read into memory and handed off to be written, whereas larger files,
+ * or those the archive doesn't give the size of, are written by the reader as they're decoded.
+ * Every file is given its full length before anything is written to it.
+ * <p>
+ * Contents are keyed as they're read, and only the first path with any given contents is written.
+ * As keys alone may collide, files matching one by key are compared byte for byte against it before being taken
+ * as the same. Every other path, including those the archive itself points at an earlier payload,
+ * is given a copy or a link by {@link Link} once everything's been written.
+ * <p>
+ * Unless kept raw, transformed regions are restored as they're written, and chunked files are put back together
+ * once every chunk's been written, after which the chunks are removed.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+public final class ExtractWorker implements Archiver.Visitor {
+	private static final Logger logger = Utils.logger();
+
+	// Anything larger is written as it's read, rather than held in memory until a writer gets to it.
+	private static final long bufferThreshold = 8 * Utils.MiB;
+	private static final int bufferSize = 128 * 1024;
+
+	private final Path root;
+	private final JobLimiter limiter;
+	private final Link link;
+	private final boolean raw;
+	private final StopWatch stopwatch;
+
+	// Everything up to the counters is only touched by the reader.
+	private final HashAlgorithm.Hasher hasher = HashAlgorithm.xxh64.newHasher();
+	private final ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+
+	// Where the first of any given contents went.
+	private final Map<Content, Path> written = new HashMap<>();
+	// Where every name's contents can be found once written, for duplicates the archive points out itself.
+	private final Map<String, Path> sources = new HashMap<>();
+	// Contents as stored of files yet to be written, to compare against until they can be read back.
+	private final Map<Path, byte[]> pending = new ConcurrentHashMap<>();
+	private final Set<Path> directories = new HashSet<>();
+
+	private final List<Duplicate> duplicates = new ArrayList<>();
+	private final List<Listing> listings = new ArrayList<>();
+	// Where chunked files are to be put back together, which can't be linked to until then, to their listings.
+	private final Map<Path, Path> assembled = new HashMap<>();
+	// Those left as listings, as some of their chunks were missing.
+	private final Set<Path> incomplete = ConcurrentHashMap.newKeySet();
+
+	public final AtomicInteger writtenCount = new AtomicInteger();
+	public final AtomicLong writtenSize = new AtomicLong();
+
+	public final AtomicInteger linkedCount = new AtomicInteger();
+
+	public final AtomicInteger regionCount = new AtomicInteger();
+	public final AtomicInteger inexactRegionCount = new AtomicInteger();
+	public final AtomicInteger chunkedCount = new AtomicInteger();
+
+	private final AtomicInteger errorCount = new AtomicInteger();
+
+	/**
+	 * @param raw Whether to leave transformed regions and chunked files as stored.
+	 */
+	public ExtractWorker(final Path root, final JobLimiter limiter, final Link link, final boolean raw, final StopWatch stopwatch) {
+		this.root = root.toAbsolutePath().normalize();
+		this.limiter = limiter;
+		this.link = link;
+		this.raw = raw;
+		this.stopwatch = stopwatch;
+	}
+
+	@Override
+	public void file(final String name, final long size, final InputStream contents) throws IOException {
+		final var path = this.resolve(name);
+		final var extension = this.restoring(name);
+		final var target = extension.isEmpty() ? path : strip(path, extension);
+		this.createParents(path);
+
+		if (extension.isEmpty() && (size < 0 || size > bufferThreshold)) {
+			final var key = this.stream(path, size, contents);
+			// Too late to skip writing it, but anything after can still be linked to it.
+			this.written.putIfAbsent(new Content(key, extension), path);
+			this.sources.put(name, path);
+			return;
+		}
+
+		final var bytes = contents.readAllBytes();
+		this.hasher.reset();
+		this.hasher.update(ByteBuffer.wrap(bytes));
+
+		final var source = this.written.putIfAbsent(new Content(this.hasher.key(), extension), target);
+		if (source != null && this.same(target, source, extension, bytes)) {
+			this.addDuplicate(target, source);
+			this.sources.put(name, source);
+			return;
+		}
+		this.sources.put(name, target);
+
+		// Listings are held onto regardless until put back together.
+		this.pending.put(target, bytes);
+		switch (extension) {
+			case ChunkedFile.extension -> {
+				this.listings.add(new Listing(path, target, bytes));
+				this.assembled.put(target, path);
+			}
+			case RegionTransform.extension -> this.submit(() -> this.written(target, this.restoreRegion(path, target, bytes)));
+			default -> this.submit(() -> this.written(target, this.write(target, bytes)));
+		}
+	}
+
+	/**
+	 * @return Whether the contents are the same as those of the source, which they've only been found to match by key.
+	 */
+	private boolean same(final Path target, final Path source, final String extension, final byte[] bytes) {
+		var stored = this.pending.get(source);
+		if (stored == null) {
+			// Already restored, which would have to be restored again to compare against.
+			if (!extension.isEmpty()) {
+				return false;
+			}
+			try {
+				stored = Files.readAllBytes(source);
+			} catch (IOException e) {
+				return false;
+			}
+		}
+
+		if (!Arrays.equals(stored, bytes)) {
+			logger.warn("{} only matches {} by key, writing it separately", target, source);
+			return false;
+		}
+		return true;
+	}
+
+	private long written(final Path target, final long bytes) {
+		this.pending.remove(target);
+		return bytes;
+	}
+
+	@Override
+	public void duplicate(final String name, final String original) throws IOException {
+		final var source = this.sources.get(original);
+		if (source == null) {
+			throw new IOException(name + " points at " + original + ", which hasn't been read");
+		}
+
+		final var path = this.resolve(name);
+		final var extension = this.restoring(name);
+		this.createParents(path);
+		this.addDuplicate(extension.isEmpty() ? path : strip(path, extension), source);
+		this.sources.put(name, source);
+	}
+
+	/**
+	 * @return A visitor writing only the first file it's given, under the given name,
+	 * for reading a single path back out of a range given by a {@link SeekIndex}.
+	 */
+	public Archiver.Visitor only(final String name) {
+		return new Archiver.Visitor() {
+			private boolean found;
+
+			@Override
+			public void file(final String ignored, final long size, final InputStream contents) throws IOException {
+				found = true;
+				ExtractWorker.this.file(name, size, contents);
+			}
+
+			@Override
+			public void duplicate(final String ignored, final String original) {
+			}
+
+			// Any after are the holder's other paths, and the range may end before the archive says it should.
+			@Override
+			public boolean done() {
+				return found;
+			}
+		};
+	}
+
+	/**
+	 * @return Where every chunk of every chunked file read so far is stored within the archive.
+	 */
+	public Set<String> chunks() throws IOException {
+		final var chunks = new LinkedHashSet<String>();
+		for (final var listing : listings) {
+			for (final var chunk : ChunkedFile.read(listing.bytes()).chunks()) {
+				final var path = ChunkedFile.chunkPath(chunk.key());
+				chunks.add(path.toString().replace(path.getFileSystem().getSeparator(), "/"));
+			}
+		}
+		return chunks;
+	}
+
+	/**
+	 * Waits on every file to be written, then links every duplicate and puts chunked files back together.
+	 */
+	public void finish() {
+		limiter.awaitIdle();
+
+		// Chunked files aren't there to link to until they're put back together.
+		final var later = new ArrayList<Duplicate>();
+		for (final var duplicate : duplicates) {
+			if (assembled.containsKey(duplicate.source())) {
+				later.add(duplicate);
+			} else {
+				this.submit(() -> this.link(duplicate));
+			}
+		}
+		limiter.awaitIdle();
+
+		// Chunks may come after the files listing them, so only now are they all there.
+		for (final var listing : listings) {
+			this.submit(() -> this.assemble(listing));
+		}
+		limiter.awaitIdle();
+
+		for (final var duplicate : later) {
+			if (incomplete.contains(duplicate.source())) {
+				// Leaves the duplicate as the same listing.
+				final var listing = new Duplicate(
+						duplicate.target().resolveSibling(duplicate.target().getFileName() + ChunkedFile.extension),
+						assembled.get(duplicate.source())
+				);
+				this.submit(() -> this.link(listing));
+			} else {
+				this.submit(() -> this.link(duplicate));
+			}
+		}
+		limiter.awaitIdle();
+
+		if (!listings.isEmpty() && incomplete.isEmpty()) {
+			this.removeChunks();
+		}
+	}
+
+	/**
+	 * @return The extension to restore the named file from, or an empty string if it's to be written as is.
+	 */
+	private String restoring(final String name) {
+		if (raw) {
+			return "";
+		}
+		if (name.endsWith(RegionTransform.extension)) {
+			return RegionTransform.extension;
+		}
+		if (name.endsWith(ChunkedFile.extension)) {
+			return ChunkedFile.extension;
+		}
+		return "";
+	}
+
+	private static Path strip(final Path path, final String extension) {
+		final var name = path.getFileName().toString();
+		return path.resolveSibling(name.substring(0, name.length() - extension.length()));
+	}
+
+	/**
+	 * @throws IOException If the name would land outside the root.
+	 */
+	private Path resolve(final String name) throws IOException {
+		final var path = root.resolve(name).normalize();
+		if (!path.startsWith(root) || path.equals(root)) {
+			throw new IOException("Refusing to write " + name + " outside of " + root);
+		}
+		return path;
+	}
+
+	/**
+	 * Creates the parents on the reader, so that no writer ever finds them missing.
+	 */
+	private void createParents(final Path path) throws IOException {
+		final var parent = path.getParent();
+		if (directories.add(parent)) {
+			Files.createDirectories(parent);
+		}
+	}
+
+	private void addDuplicate(final Path target, final Path source) {
+		if (!target.equals(source)) {
+			duplicates.add(new Duplicate(target, source));
+		}
+	}
+
+	/**
+	 * Writes the contents as they're read, keying them along the way.
+	 */
+	private HashKey stream(final Path path, final long size, final InputStream contents) throws IOException {
+		final var bytes = buffer.array();
+		hasher.reset();
+
+		long total = 0L;
+		try (final var output = open(path, size)) {
+			int read;
+			while ((read = contents.read(bytes, 0, bytes.length)) >= 0) {
+				buffer.clear().limit(read);
+				hasher.update(buffer);
+				writeFully(output, buffer.position(0));
+				total += read;
+			}
+		}
+
+		if (size >= 0 && total != size) {
+			throw new IOException(path + " was " + total + " bytes rather than the " + size + " listed");
+		}
+		writtenCount.incrementAndGet();
+		writtenSize.addAndGet(total);
+		return hasher.key();
+	}
+
+	private long write(final Path path, final byte[] bytes) {
+		try (final var output = open(path, bytes.length)) {
+			writeFully(output, ByteBuffer.wrap(bytes));
+		} catch (IOException e) {
+			this.fail(path, e);
+			return 0L;
+		}
+		writtenCount.incrementAndGet();
+		writtenSize.addAndGet(bytes.length);
+		return bytes.length;
+	}
+
+	private long restoreRegion(final Path path, final Path target, final byte[] bytes) {
+		final RegionTransform.Restored restored;
+		try {
+			restored = RegionTransform.restore(ByteBuffer.wrap(bytes));
+		} catch (IOException malformed) {
+			this.errorCount.incrementAndGet();
+			logger.error("Cannot restore {}, leaving it as is", target, malformed);
+			return this.write(path, bytes);
+		}
+
+		regionCount.incrementAndGet();
+		if (!restored.exact()) {
+			inexactRegionCount.incrementAndGet();
+			logger.warn("{} could not be restored byte for byte, and was laid out again", target);
+		}
+		return this.write(target, restored.region());
+	}
+
+	/**
+	 * Puts a chunked file back together from its chunks, leaving the listing as is if any are missing,
+	 * as is the case for an incremental extracted on its own.
+	 */
+	private long assemble(final Listing listing) {
+		final ChunkedFile.Listing chunked;
+		try {
+			chunked = ChunkedFile.read(listing.bytes());
+		} catch (IOException malformed) {
+			incomplete.add(listing.target());
+			this.fail(listing.target(), malformed);
+			return this.write(listing.path(), listing.bytes());
+		}
+
+		for (final var chunk : chunked.chunks()) {
+			if (!Files.isRegularFile(root.resolve(ChunkedFile.chunkPath(chunk.key())))) {
+				incomplete.add(listing.target());
+				logger.warn("Cannot put {} back together without chunk {}, leaving it as is", listing.target(), chunk.key());
+				return this.write(listing.path(), listing.bytes());
+			}
+		}
+
+		try (final var output = open(listing.target(), chunked.size())) {
+			for (final var chunk : chunked.chunks()) {
+				final var path = root.resolve(ChunkedFile.chunkPath(chunk.key()));
+				try (final var input = FileChannel.open(path, StandardOpenOption.READ)) {
+					if (input.size() != chunk.length()) {
+						throw new IOException("Chunk " + chunk.key() + " is " + input.size() + " bytes rather than " + chunk.length());
+					}
+					long position = 0L;
+					while (position < chunk.length()) {
+						position += input.transferTo(position, chunk.length() - position, output);
+					}
+				}
+			}
+		} catch (IOException e) {
+			this.fail(listing.target(), e);
+			return 0L;
+		}
+
+		chunkedCount.incrementAndGet();
+		return chunked.size();
+	}
+
+	private long link(final Duplicate duplicate) {
+		try {
+			link.link(duplicate.source(), duplicate.target());
+		} catch (IOException e) {
+			this.fail(duplicate.target(), e);
+			return 0L;
+		}
+		linkedCount.incrementAndGet();
+		return 0L;
+	}
+
+	private void removeChunks() {
+		final var chunks = root.resolve(ChunkedFile.chunkDirectory);
+		try (final var stream = Files.walk(chunks)) {
+			for (final var path : stream.sorted(Comparator.reverseOrder()).toList()) {
+				Files.delete(path);
+			}
+			// Left be if there's an index in it.
+			Files.deleteIfExists(chunks.getParent());
+		} catch (DirectoryNotEmptyException ignored) {
+		} catch (IOException e) {
+			logger.warn("Cannot remove chunks at {}", chunks, e);
+		}
+	}
+
+	/**
+	 * Opens the file for writing, giving it its full length up front where known.
+	 * Java can't ask for the space to be allocated, but the file doesn't have to be grown with every write.
+	 */
+	private static FileChannel open(final Path path, final long size) throws IOException {
+		if (size < 0) {
+			return FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+		}
+		final var file = new RandomAccessFile(path.toFile(), "rw");
+		try {
+			file.setLength(size);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+		return file.getChannel();
+	}
+
+	private static void writeFully(final FileChannel output, final ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			output.write(buffer);
+		}
+	}
+
+	private void fail(final Path path, final IOException exception) {
+		this.errorCount.incrementAndGet();
+		logger.error("Cannot write {}", path, exception);
+	}
+
+	/**
+	 * @param task Returns the amount of bytes it wrote, for the limiter to go off of.
+	 */
+	private void submit(final LongSupplier task) {
+		limiter.acquire();
+		Thread.startVirtualThread(new Job(task, limiter));
+	}
+
+	public int errors() {
+		return this.errorCount.get();
+	}
+
+	public void log() {
+		logger.info("{} => Written {} ({}) files, linked {} duplicates",
+				this.stopwatch,
+				this.writtenCount.get(), Utils.displaySize(this.writtenSize.get()),
+				this.linkedCount.get()
+		);
+		if (this.regionCount.get() > 0) {
+			logger.info("Restored {} regions, {} of which were laid out again", this.regionCount.get(), this.inexactRegionCount.get());
+		}
+		if (!this.listings.isEmpty()) {
+			logger.info("Put {} of {} chunked files back together", this.chunkedCount.get(), this.listings.size());
+		}
+	}
+
+	public void report(final Metrics metrics) {
+		final long elapsed = stopwatch.getNanoTime();
+
+		final var extract = metrics.object("extract");
+		extract.put("files", writtenCount.get());
+		extract.put("bytes", writtenSize.get());
+		extract.put("linked", linkedCount.get());
+		extract.put("link", link.name());
+		extract.put("regions", regionCount.get());
+		extract.put("inexactRegions", inexactRegionCount.get());
+		extract.put("chunkedFiles", chunkedCount.get());
+		extract.put("incompleteChunkedFiles", incomplete.size());
+		extract.put("errors", errorCount.get());
+		extract.put("nanos", elapsed);
+		extract.put("mibPerSecond", Metrics.mibPerSecond(writtenSize.get(), elapsed));
+
+		limiter.report(metrics.object("jobs"));
+	}
+
+	/**
+	 * How every path past the first with the same contents is written.
+	 */
+	public enum Link {
+		/**
+		 * Copies file to file with {@link Files#copy}, which on Linux is left to the kernel's {@code copy_file_range},
+		 * sharing the extents outright on filesystems with reflinks such as btrfs and XFS.
+		 */
+		copy {
+			@Override
+			void link(final Path source, final Path target) throws IOException {
+				Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		},
+		/**
+		 * Hardlinks, copying where the filesystem can't. Every path is then the same file,
+		 * so anything editing one in place edits them all.
+		 */
+		hardlink {
+			@Override
+			void link(final Path source, final Path target) throws IOException {
+				Files.deleteIfExists(target);
+				try {
+					Files.createLink(target, source);
+				} catch (UnsupportedOperationException | FileSystemException unsupported) {
+					copy.link(source, target);
+				}
+			}
+		};
+
+		abstract void link(final Path source, final Path target) throws IOException;
+	}
+
+	/**
+	 * @param extension What the contents are restored from, as the same contents under another extension
+	 *                  are written differently.
+	 */
+	private record Content(HashKey key, String extension) {
+	}
+
+	private record Duplicate(Path target, Path source) {
+	}
+
+	/**
+	 * @param path   Where the listing goes if it can't be put back together.
+	 * @param target Where the file goes once put back together.
+	 */
+	private record Listing(Path path, Path target, byte[] bytes) {
+	}
+
+	private record Job(LongSupplier task, JobLimiter limiter) implements Runnable {
+		@Override
+		public void run() {
+			final long start = System.nanoTime();
+			long bytes = 0L;
+			try {
+				bytes = task.getAsLong();
+			} finally {
+				limiter.release(bytes, System.nanoTime() - start);
+			}
+		}
+	}
+}
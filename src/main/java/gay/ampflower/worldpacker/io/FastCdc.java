@@ -0,0 +1,92 @@
+package gay.ampflower.worldpacker.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Finds where to cut a file into chunks by its contents, with FastCDC's gear hash and normalised chunking,
+ * so that an edit only changes the chunks around it rather than shifting every chunk after it.
+ * <p>
+ * The gear hash only ever depends on the last 64 bytes seen, and a cut is made wherever its top bits are all 0.
+ * Below {@link #averageSize}, more bits have to match, and past it fewer, which pulls chunks in towards the average.
+ * Nothing is cut below {@link #minSize}, which isn't hashed at all, and everything is cut at {@link #maxSize}.
+ * <p>
+ * The gear table is fixed, so that the same contents are cut the same across runs, which is what lets
+ * chunks be found again in a base.
+ * <p>
+ * Holds the state of a single file, carried across however many buffers it's read in.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+public final class FastCdc {
+	public static final int minSize = 4 * 1024;
+	public static final int averageSize = 16 * 1024;
+	public static final int maxSize = 64 * 1024;
+
+	// 14 bits for the average, 2 more below it and 2 fewer above.
+	private static final long smallMask = -1L << (64 - 16);
+	private static final long largeMask = -1L << (64 - 12);
+
+	private static final long[] gear = new long[256];
+
+	static {
+		// SplitMix64, for a table that's random enough without being stored anywhere.
+		long seed = 0x57504344L;
+		for (int i = 0; i < gear.length; i++) {
+			long z = (seed += 0x9E3779B97F4A7C15L);
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			gear[i] = z ^ (z >>> 31);
+		}
+	}
+
+	private long hash;
+	private int length;
+
+	/**
+	 * Scans the buffer from its position for the end of the current chunk, without moving it.
+	 *
+	 * @return The index the current chunk ends at, after which the next one starts,
+	 * or -1 if it carries on past the buffer's limit.
+	 */
+	public int next(final ByteBuffer buffer) {
+		final int limit = buffer.limit();
+		// Where the current chunk started, which may well be before this buffer.
+		final int base = buffer.position() - length;
+		long hash = this.hash;
+
+		// Nothing below the minimum can be cut at, so isn't worth hashing.
+		int i = Math.max(buffer.position(), base + minSize);
+
+		// Split at the average, sparing picking the mask every byte.
+		final int average = Math.min(limit, base + averageSize);
+		for (; i < average; i++) {
+			hash = (hash << 1) + gear[buffer.get(i) & 0xFF];
+			if ((hash & smallMask) == 0) {
+				return cut(i + 1);
+			}
+		}
+
+		final int max = Math.min(limit, base + maxSize);
+		for (; i < max; i++) {
+			hash = (hash << 1) + gear[buffer.get(i) & 0xFF];
+			if ((hash & largeMask) == 0) {
+				return cut(i + 1);
+			}
+		}
+
+		if (i == base + maxSize) {
+			return cut(i);
+		}
+
+		this.hash = hash;
+		this.length = limit - base;
+		return -1;
+	}
+
+	private int cut(final int end) {
+		this.hash = 0L;
+		this.length = 0;
+		return end;
+	}
+}
@@ -0,0 +1,372 @@
+package gay.ampflower.worldpacker.io;
+
+import gay.ampflower.worldpacker.HashKey;
+import gay.ampflower.worldpacker.Utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Checksum;
+
+/**
+ * Hashes files in a single pass, reading straight from a {@link FileChannel} into a pooled direct buffer
+ * and feeding both the key's hash and the checksum from it.
+ * <p>
+ * The checksum is only ever the CRC32 that zips need, and is left out entirely for archives that don't.
+ * <p>
+ * Buffers and hashers are handed back once a file is done, so there are only ever as many as there are
+ * files being read at once.
+ * <p>
+ * Files at or above the map threshold are instead mapped into memory a window at a time, sparing
+ * the copy into the buffer.
+ * <p>
+ * Files may instead be cut into chunks by {@link FastCdc} in the same pass, with each chunk hashed on its own.
+ * <p>
+ * The start of every file may also be sketched by {@link MinHash} in the same pass, for ordering by similarity.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+public final class FileHasher {
+	private static final int bufferSize = 128 * 1024;
+	// How much of each end of a file gets sampled.
+	private static final int sampleSize = 4 * 1024;
+	// Mappings are indexed by int.
+	private static final long mapWindow = Utils.GiB;
+
+	private final HashAlgorithm algorithm;
+	private final ChecksumStreamFactory cksumFactory;
+	private final long mapThreshold;
+	private final boolean sketch;
+
+	private final Deque<ByteBuffer> freeBuffers = new ConcurrentLinkedDeque<>();
+	private final Deque<HashAlgorithm.Hasher> freeHashers = new ConcurrentLinkedDeque<>();
+
+	// Time spent in the hash and checksum alone, apart from reading.
+	private final LongAdder updateNanos = new LongAdder();
+	private final LongAdder updateBytes = new LongAdder();
+
+	/**
+	 * @param cksumFactory The checksum to take alongside the hash, or null to not take one.
+	 * @param mapThreshold The size at which files get mapped rather than read, or 0 to never map.
+	 * @param sketch       Whether to sketch files as they're hashed.
+	 */
+	public FileHasher(final HashAlgorithm algorithm, final ChecksumStreamFactory cksumFactory, final long mapThreshold, final boolean sketch) {
+		this.algorithm = algorithm;
+		this.cksumFactory = cksumFactory;
+		this.mapThreshold = mapThreshold;
+		this.sketch = sketch;
+	}
+
+	/**
+	 * @return Whether a file of the given size would be mapped rather than read.
+	 */
+	public boolean maps(final long size) {
+		return mapThreshold > 0 && size >= mapThreshold;
+	}
+
+	/**
+	 * @return Whether files get checksummed at all, else {@link Hashed#crc32()} is always 0.
+	 */
+	public boolean checksums() {
+		return cksumFactory != null;
+	}
+
+	/**
+	 * Hashes the file at the given path.
+	 *
+	 * @param target If not null, the file is read into this buffer as far as it fits, and left flipped
+	 *               for reading. Anything that doesn't fit is still hashed.
+	 */
+	public Hashed hash(final Path path, final ByteBuffer target) throws IOException {
+		final var hasher = acquireHasher();
+		try {
+			return hash(path, target, hasher);
+		} finally {
+			freeHashers.push(hasher);
+		}
+	}
+
+	/**
+	 * Checksums the file at the given path without hashing it, for files known to have no duplicates.
+	 *
+	 * @param target As with {@link #hash(Path, ByteBuffer)}.
+	 * @return The checksum, with a null key.
+	 */
+	public Hashed checksum(final Path path, final ByteBuffer target) throws IOException {
+		return hash(path, target, null);
+	}
+
+	private Hashed hash(final Path path, final ByteBuffer target, final HashAlgorithm.Hasher hasher) throws IOException {
+		final var checksum = cksumFactory == null ? null : cksumFactory.getHasher();
+		final var sketch = this.sketch ? new MinHash() : null;
+
+		try (final var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = 0;
+
+			if (target != null) {
+				int read;
+				while (target.hasRemaining() && (read = channel.read(target)) >= 0) {
+					update(hasher, checksum, sketch, target.slice(target.position() - read, read));
+					size += read;
+				}
+				target.flip();
+			} else if (maps(channel.size())) {
+				final long length = channel.size();
+				for (long position = 0; position < length; position += mapWindow) {
+					update(hasher, checksum, sketch, channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(mapWindow, length - position)));
+				}
+				size = length;
+				// Anything appended since is picked up by the read below.
+				channel.position(length);
+			}
+
+			final var buffer = acquire();
+			try {
+				int read;
+				while ((read = channel.read(buffer.clear())) >= 0) {
+					update(hasher, checksum, sketch, buffer.flip());
+					size += read;
+				}
+			} finally {
+				freeBuffers.push(buffer);
+			}
+
+			return new Hashed(hasher == null ? null : hasher.key(), checksum == null ? 0L : checksum.getValue(), size, sketch);
+		} finally {
+			if (checksum != null) {
+				cksumFactory.release(checksum);
+			}
+		}
+	}
+
+	/**
+	 * Cuts the file into chunks by its contents as it's read, hashing and checksumming each chunk on its own.
+	 *
+	 * @return Every chunk of the file, in order.
+	 */
+	public List<Chunk> chunk(final Path path) throws IOException {
+		final var hasher = acquireHasher();
+		final var checksum = cksumFactory == null ? null : cksumFactory.getHasher();
+		final var chunking = new Chunking(hasher, checksum);
+
+		try (final var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (maps(channel.size())) {
+				final long length = channel.size();
+				for (long position = 0; position < length; position += mapWindow) {
+					chunking.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(mapWindow, length - position)));
+				}
+				channel.position(length);
+			}
+
+			final var buffer = acquire();
+			try {
+				while (channel.read(buffer.clear()) >= 0) {
+					chunking.update(buffer.flip());
+				}
+			} finally {
+				freeBuffers.push(buffer);
+			}
+
+			return chunking.finish();
+		} finally {
+			freeHashers.push(hasher);
+			if (checksum != null) {
+				cksumFactory.release(checksum);
+			}
+		}
+	}
+
+	/**
+	 * Hashes only the first and last few KiB of the file, as a cheap check of whether files of
+	 * the same size could be the same.
+	 */
+	public HashKey sample(final Path path) throws IOException {
+		final var hasher = acquireHasher();
+		final var buffer = acquire();
+
+		try (final var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final long size = channel.size();
+
+			readAt(channel, buffer.clear().limit((int) Math.min(sampleSize, size)), 0);
+			hasher.update(buffer.flip());
+
+			// Small files are sampled whole, without reading anything twice.
+			final long tail = Math.max(sampleSize, size - sampleSize);
+			if (tail < size) {
+				readAt(channel, buffer.clear().limit((int) (size - tail)), tail);
+				hasher.update(buffer.flip());
+			}
+
+			return hasher.key();
+		} finally {
+			freeBuffers.push(buffer);
+			freeHashers.push(hasher);
+		}
+	}
+
+	private static void readAt(final FileChannel channel, final ByteBuffer buffer, long position) throws IOException {
+		int read;
+		while (buffer.hasRemaining() && (read = channel.read(buffer, position)) >= 0) {
+			position += read;
+		}
+	}
+
+	/**
+	 * Hashes bytes already in memory, leaving the buffer's position untouched.
+	 */
+	public Hashed hash(final ByteBuffer bytes) {
+		final var hasher = acquireHasher();
+		final var checksum = cksumFactory == null ? null : cksumFactory.getHasher();
+		final var sketch = this.sketch ? new MinHash() : null;
+
+		try {
+			update(hasher, checksum, sketch, bytes.duplicate());
+			return new Hashed(hasher.key(), checksum == null ? 0L : checksum.getValue(), bytes.remaining(), sketch);
+		} finally {
+			freeHashers.push(hasher);
+			if (checksum != null) {
+				cksumFactory.release(checksum);
+			}
+		}
+	}
+
+	/**
+	 * Hashes bytes already in memory without the checksum, leaving the buffer's position untouched.
+	 */
+	public HashKey key(final ByteBuffer bytes) {
+		final var hasher = acquireHasher();
+
+		try {
+			hasher.update(bytes.duplicate());
+			return hasher.key();
+		} finally {
+			freeHashers.push(hasher);
+		}
+	}
+
+	private void update(final HashAlgorithm.Hasher hasher, final Checksum checksum, final MinHash sketch, final ByteBuffer buffer) {
+		final long start = System.nanoTime();
+		updateBytes.add(buffer.remaining());
+		if (sketch != null) {
+			sketch.update(buffer);
+		}
+		if (hasher != null) {
+			final int position = buffer.position();
+			hasher.update(buffer);
+			buffer.position(position);
+		}
+		if (checksum != null) {
+			checksum.update(buffer);
+		}
+		updateNanos.add(System.nanoTime() - start);
+	}
+
+	/**
+	 * @return Total time spent hashing, checksumming and sketching across every thread, not counting reads.
+	 * Mapped files fault their pages in while being hashed, which is counted here.
+	 */
+	public long hashNanos() {
+		return updateNanos.sum();
+	}
+
+	/**
+	 * @return Total bytes hashed and checksummed, not counting samples.
+	 */
+	public long hashBytes() {
+		return updateBytes.sum();
+	}
+
+	private ByteBuffer acquire() {
+		final var buffer = freeBuffers.poll();
+		if (buffer != null) {
+			return buffer;
+		}
+		return ByteBuffer.allocateDirect(bufferSize);
+	}
+
+	private HashAlgorithm.Hasher acquireHasher() {
+		final var hasher = freeHashers.poll();
+		if (hasher == null) {
+			return algorithm.newHasher();
+		}
+		hasher.reset();
+		return hasher;
+	}
+
+	/**
+	 * Carries a file's current chunk across every buffer it's read in.
+	 */
+	private final class Chunking {
+		private final FastCdc cdc = new FastCdc();
+		private final List<Chunk> chunks = new ArrayList<>();
+		private final HashAlgorithm.Hasher hasher;
+		private final Checksum checksum;
+
+		private long offset;
+		private long length;
+
+		private Chunking(final HashAlgorithm.Hasher hasher, final Checksum checksum) {
+			this.hasher = hasher;
+			this.checksum = checksum;
+		}
+
+		void update(final ByteBuffer buffer) {
+			while (buffer.hasRemaining()) {
+				final int end = cdc.next(buffer);
+				final int limit = end < 0 ? buffer.limit() : end;
+
+				FileHasher.this.update(hasher, checksum, null, buffer.slice(buffer.position(), limit - buffer.position()));
+				length += limit - buffer.position();
+				buffer.position(limit);
+
+				if (end >= 0) {
+					cut();
+				}
+			}
+		}
+
+		List<Chunk> finish() {
+			if (length > 0) {
+				cut();
+			}
+			return chunks;
+		}
+
+		private void cut() {
+			chunks.add(new Chunk(offset, new Hashed(hasher.key(), checksum == null ? 0L : checksum.getValue(), length)));
+			offset += length;
+			length = 0;
+
+			hasher.reset();
+			if (checksum != null) {
+				checksum.reset();
+			}
+		}
+	}
+
+	/**
+	 * @param offset Where the chunk starts in the file.
+	 */
+	public record Chunk(long offset, Hashed hashed) {
+	}
+
+	/**
+	 * @param key    The key of the file's contents, or null if only checksummed.
+	 * @param crc32  The checksum of the file, or 0 if not checksummed.
+	 * @param size   The amount of bytes actually read.
+	 * @param sketch The start of the file sketched, or null if not sketched.
+	 */
+	public record Hashed(HashKey key, long crc32, long size, MinHash sketch) {
+		public Hashed(final HashKey key, final long crc32, final long size) {
+			this(key, crc32, size, null);
+		}
+	}
+}
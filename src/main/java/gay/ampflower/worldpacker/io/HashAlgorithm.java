@@ -0,0 +1,130 @@
+package gay.ampflower.worldpacker.io;
+
+import gay.ampflower.worldpacker.HashKey;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32C;
+
+/**
+ * How file contents get keyed for finding duplicates.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+public enum HashAlgorithm {
+	/**
+	 * SHA-256 as is. Slowest by far, but the only choice that holds up against someone picking the input.
+	 */
+	sha256(1) {
+		@Override
+		public Hasher newHasher() {
+			try {
+				return new Sha256();
+			} catch (NoSuchAlgorithmException nsae) {
+				throw new AssertionError("SHA-256 is required to be present", nsae);
+			}
+		}
+	},
+	/**
+	 * XXH64 and CRC32C of the contents, alongside the size. Both hashes are 64 and 32 bits wide respectively,
+	 * and independent of each other, so a match by chance would take far more files than any world has.
+	 * <p>
+	 * Laid out as {@code l1} for XXH64, {@code l2} for CRC32C, {@code l3} for the size, {@code l4} left as 0.
+	 */
+	xxh64(2) {
+		@Override
+		public Hasher newHasher() {
+			return new Fast();
+		}
+	};
+
+	/**
+	 * The algorithm's identifier in files that record it, stable across renames.
+	 */
+	public final int id;
+
+	HashAlgorithm(final int id) {
+		this.id = id;
+	}
+
+	public abstract Hasher newHasher();
+
+	/**
+	 * @return The algorithm with the given identifier, or null if it isn't one this knows of.
+	 */
+	public static HashAlgorithm byId(final int id) {
+		for (final var algorithm : values()) {
+			if (algorithm.id == id) {
+				return algorithm;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reusable state for hashing a single stream of bytes at a time.
+	 */
+	public interface Hasher {
+		/**
+		 * Hashes everything remaining in the buffer, leaving its position at its limit.
+		 */
+		void update(ByteBuffer buffer);
+
+		/**
+		 * Finishes the hash. The hasher must be reset before being used again.
+		 */
+		HashKey key();
+
+		void reset();
+	}
+
+	private static final class Sha256 implements Hasher {
+		private final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+		private Sha256() throws NoSuchAlgorithmException {
+		}
+
+		@Override
+		public void update(final ByteBuffer buffer) {
+			digest.update(buffer);
+		}
+
+		@Override
+		public HashKey key() {
+			return new HashKey(digest.digest());
+		}
+
+		@Override
+		public void reset() {
+			digest.reset();
+		}
+	}
+
+	private static final class Fast implements Hasher {
+		private final Xxh64 xxh = new Xxh64();
+		private final CRC32C crc = new CRC32C();
+		private long size;
+
+		@Override
+		public void update(final ByteBuffer buffer) {
+			final int position = buffer.position();
+			size += buffer.remaining();
+			xxh.update(buffer);
+			crc.update(buffer.position(position));
+		}
+
+		@Override
+		public HashKey key() {
+			return new HashKey(xxh.getValue(), crc.getValue(), size, 0L);
+		}
+
+		@Override
+		public void reset() {
+			xxh.reset();
+			crc.reset();
+			size = 0L;
+		}
+	}
+}
@@ -0,0 +1,281 @@
+package gay.ampflower.worldpacker.io;
+
+import gay.ampflower.worldpacker.HashKey;
+import gay.ampflower.worldpacker.Utils;
+import org.slf4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Remembers the hashes of files between runs, so that files that haven't changed needn't be read again.
+ * <p>
+ * A file is taken as unchanged when its size, modification time and file key all match what was recorded.
+ * Files modified within a couple seconds of being hashed aren't recorded, as a later write within the same
+ * timestamp wouldn't be noticed.
+ * <p>
+ * The cache is a flat, big endian file:
+ * <pre>
+ * int    magic, "WPHC"
+ * int    version
+ * byte   hash algorithm, as {@link HashAlgorithm#id}
+ * int    record count
+ * record {
+ *   short  path length
+ *   byte[] path, UTF-8, relative to the input
+ *   long   size
+ *   long   modification time, in nanoseconds since the epoch
+ *   long   file key, hashed
+ *   byte   flags, 1 if the hash is of a repacked region, 2 if the CRC32 was taken, 4 if of a transformed region
+ *   long   hashed size
+ *   int    CRC32, or 0 if not taken
+ *   byte[] key, 32 bytes
+ * }
+ * </pre>
+ * Every record is read in on load, leaving the file closed so that it can be replaced by saving,
+ * which writes out every file seen in the run, dropping anything that's gone.
+ * <p>
+ * A cache made with another hash algorithm is started afresh, as none of its keys would match.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+public final class HashCache {
+	private static final Logger logger = Utils.logger();
+
+	private static final int magic = 0x57504843;
+	private static final int version = 2;
+	private static final byte repackedFlag = 1;
+	private static final byte checksummedFlag = 2;
+	private static final byte transformedFlag = 4;
+	private static final long racyMillis = 2000;
+
+	public static final HashCache NONE = new HashCache(null, null, Map.of());
+
+	private final Path file;
+	private final HashAlgorithm algorithm;
+	private final Map<String, Entry> cached;
+
+	private final Map<String, Entry> seen = new ConcurrentHashMap<>();
+
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+
+	private HashCache(final Path file, final HashAlgorithm algorithm, final Map<String, Entry> cached) {
+		this.file = file;
+		this.algorithm = algorithm;
+		this.cached = cached;
+	}
+
+	/**
+	 * Loads the cache at the given file, starting afresh if there isn't one or it can't be read.
+	 *
+	 * @param algorithm The algorithm the run is hashing with.
+	 */
+	public static HashCache load(final Path file, final HashAlgorithm algorithm) {
+		try (final var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (input.readInt() != magic || input.readInt() != version) {
+				logger.warn("{} isn't a hash cache this understands, starting afresh.", file);
+				return new HashCache(file, algorithm, Map.of());
+			}
+
+			final var hashed = HashAlgorithm.byId(input.readByte());
+			if (hashed != algorithm) {
+				logger.info("{} was hashed with {} rather than {}, starting afresh.", file, hashed, algorithm);
+				return new HashCache(file, algorithm, Map.of());
+			}
+
+			final int count = input.readInt();
+			final var cached = HashMap.<String, Entry>newHashMap(Math.max(0, Math.min(count, 1 << 20)));
+			final var name = new byte[0xFFFF];
+
+			for (int i = 0; i < count; i++) {
+				final int length = input.readUnsignedShort();
+				input.readFully(name, 0, length);
+				final var path = new String(name, 0, length, StandardCharsets.UTF_8);
+
+				final long size = input.readLong();
+				final long modified = input.readLong();
+				final long key = input.readLong();
+				final byte flags = input.readByte();
+				cached.put(path, new Entry(
+						size,
+						modified,
+						key,
+						(flags & repackedFlag) != 0,
+						(flags & transformedFlag) != 0,
+						(flags & checksummedFlag) != 0,
+						input.readLong(),
+						input.readInt(),
+						new HashKey(input.readLong(), input.readLong(), input.readLong(), input.readLong())
+				));
+			}
+
+			logger.info("Loaded {} hashes from {}", count, file);
+			return new HashCache(file, algorithm, cached);
+		} catch (NoSuchFileException missing) {
+			logger.info("No hash cache at {}, starting afresh.", file);
+			return new HashCache(file, algorithm, Map.of());
+		} catch (EOFException | IllegalArgumentException truncated) {
+			logger.warn("Hash cache at {} is truncated, starting afresh.", file, truncated);
+			return new HashCache(file, algorithm, Map.of());
+		} catch (IOException io) {
+			logger.warn("Cannot read hash cache at {}, starting afresh.", file, io);
+			return new HashCache(file, algorithm, Map.of());
+		}
+	}
+
+	public boolean enabled() {
+		return file != null;
+	}
+
+	/**
+	 * @param path       The path relative to the input.
+	 * @param attributes The file's current attributes.
+	 * @param repacked    Whether the hash wanted is of the region repacked.
+	 * @param transformed Whether the hash wanted is of the region transformed, after any repacking.
+	 * @param checksum    Whether the CRC32 is wanted as well.
+	 * @return The recorded hash if the file hasn't changed since, else null.
+	 */
+	public FileHasher.Hashed get(final String path, final BasicFileAttributes attributes, final boolean repacked, final boolean transformed, final boolean checksum) {
+		if (!enabled()) {
+			return null;
+		}
+
+		final var entry = cached.get(path);
+		if (entry == null || !entry.matches(attributes, repacked, transformed, checksum)) {
+			misses.incrementAndGet();
+			return null;
+		}
+
+		hits.incrementAndGet();
+		seen.put(path, entry);
+		return entry.hashed();
+	}
+
+	/**
+	 * Records the file's hash, unless it was modified too recently to be trusted.
+	 *
+	 * @param transformed Whether the hash is of the region transformed.
+	 * @param checksummed Whether the CRC32 was taken, else it's 0.
+	 */
+	public void put(final String path, final BasicFileAttributes attributes, final boolean repacked, final boolean transformed, final boolean checksummed, final FileHasher.Hashed hashed) {
+		if (!enabled()) {
+			return;
+		}
+		if (attributes.lastModifiedTime().toMillis() > System.currentTimeMillis() - racyMillis) {
+			return;
+		}
+		if (path.getBytes(StandardCharsets.UTF_8).length > 0xFFFF) {
+			return;
+		}
+
+		seen.put(path, new Entry(
+				attributes.size(),
+				modified(attributes),
+				key(attributes),
+				repacked,
+				transformed,
+				checksummed,
+				hashed.size(),
+				(int) hashed.crc32(),
+				hashed.key()
+		));
+	}
+
+	/**
+	 * Writes every file seen in this run to the cache file, replacing it.
+	 */
+	public void save() throws IOException {
+		if (!enabled()) {
+			return;
+		}
+
+		final var temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (final var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+			output.writeInt(magic);
+			output.writeInt(version);
+			output.writeByte(algorithm.id);
+			output.writeInt(seen.size());
+
+			for (final var e : seen.entrySet()) {
+				final var name = e.getKey().getBytes(StandardCharsets.UTF_8);
+				final var entry = e.getValue();
+
+				output.writeShort(name.length);
+				output.write(name);
+				output.writeLong(entry.size());
+				output.writeLong(entry.modified());
+				output.writeLong(entry.key());
+				output.writeByte((entry.repacked() ? repackedFlag : 0)
+								 | (entry.transformed() ? transformedFlag : 0)
+								 | (entry.checksummed() ? checksummedFlag : 0));
+				output.writeLong(entry.hashedSize());
+				output.writeInt(entry.crc32());
+				output.writeLong(entry.hash().l1());
+				output.writeLong(entry.hash().l2());
+				output.writeLong(entry.hash().l3());
+				output.writeLong(entry.hash().l4());
+			}
+		}
+
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		logger.info("Saved {} hashes to {}, {} hit, {} missed", seen.size(), file, hits.get(), misses.get());
+	}
+
+	public int hits() {
+		return hits.get();
+	}
+
+	public int misses() {
+		return misses.get();
+	}
+
+	private static long modified(final BasicFileAttributes attributes) {
+		return attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+	}
+
+	private static long key(final BasicFileAttributes attributes) {
+		final var key = attributes.fileKey();
+		if (key == null) {
+			return 0;
+		}
+
+		// FNV-1a over whatever the platform identifies the file by; on Unix, the device and inode.
+		long hash = 0xcbf29ce484222325L;
+		for (final byte b : key.toString().getBytes(StandardCharsets.UTF_8)) {
+			hash = (hash ^ (b & 0xFF)) * 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	private record Entry(long size, long modified, long key, boolean repacked, boolean transformed, boolean checksummed, long hashedSize, int crc32, HashKey hash) {
+		boolean matches(final BasicFileAttributes attributes, final boolean repacked, final boolean transformed, final boolean checksum) {
+			return this.repacked == repacked
+				   && this.transformed == transformed
+				   && (checksummed || !checksum)
+				   && size == attributes.size()
+				   && modified == HashCache.modified(attributes)
+				   && key == HashCache.key(attributes);
+		}
+
+		FileHasher.Hashed hashed() {
+			return new FileHasher.Hashed(hash, Integer.toUnsignedLong(crc32), hashedSize);
+		}
+	}
+}
@@ -0,0 +1,332 @@
+package gay.ampflower.worldpacker.io;
+
+import gay.ampflower.worldpacker.Data;
+import gay.ampflower.worldpacker.EntryPath;
+import gay.ampflower.worldpacker.HashKey;
+import gay.ampflower.worldpacker.Holder;
+import gay.ampflower.worldpacker.PathSet;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Map from hash to holder, with everything about each entry laid out flat in arrays, so that nothing
+ * is allocated per entry beyond what it's stored as.
+ * <p>
+ * Entries are packed in the order they were added, each taking the four longs of its hash, its size and CRC32,
+ * its {@link Data}, and where its paths start. Lookups go through an open addressed table of where each entry is,
+ * so that only an int per slot is left empty to keep probing short, and growing only moves the table.
+ * The paths of every entry in a stripe share the one array, each pointing at the one added before it
+ * to the same entry, so that an entry with a single path costs an array element rather than a set.
+ * <p>
+ * Split into stripes by the top bits of the hash, each locked and grown on its own, so that readers inserting
+ * at once rarely contend. The first two longs of every key are already uniform, so they're used as is
+ * for the stripe and slot.
+ * <p>
+ * Only {@link #add} and {@link #addIfAbsent} insert. {@link Holder}s are only made as views of an entry
+ * as it was when asked for, with its paths sorted, once something needs them. Iterating sees each stripe
+ * as it was when the iterator got to it; prefer {@link #values()} to {@link #entrySet()}, which makes
+ * a new {@link HashKey} per entry too.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+public final class HashIndex extends AbstractMap<HashKey, Holder> {
+	private static final int stripeBits = 6;
+	private static final int initialCapacity = 16;
+
+	private final Stripe[] stripes = new Stripe[1 << stripeBits];
+
+	public HashIndex() {
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = new Stripe();
+		}
+	}
+
+	private Stripe stripe(final HashKey key) {
+		return stripes[(int) (key.l1() >>> (Long.SIZE - stripeBits))];
+	}
+
+	/**
+	 * Adds the path to the entry for the key, making the entry out of the rest if it's the first.
+	 *
+	 * @return The entry as it was before the path was added, without its paths, or null if it was made for it.
+	 * The paths aren't gathered, as that's linear in how many there are; {@link #get} the entry for them.
+	 */
+	public Holder add(final HashKey key, final long crc32, final long size, final Data data, final MinHash sketch, final EntryPath path) {
+		return stripe(key).add(key, crc32, size, data, sketch, path, true);
+	}
+
+	/**
+	 * Makes an entry for the key holding only the path, unless there already is one.
+	 *
+	 * @return Whether the entry was made.
+	 */
+	public boolean addIfAbsent(final HashKey key, final long crc32, final long size, final Data data, final EntryPath path) {
+		return stripe(key).add(key, crc32, size, data, null, path, false) == null;
+	}
+
+	@Override
+	public Holder get(final Object key) {
+		if (key instanceof HashKey hash) {
+			return stripe(hash).get(hash);
+		}
+		return null;
+	}
+
+	@Override
+	public boolean containsKey(final Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+		for (final var stripe : stripes) {
+			size += stripe.size();
+		}
+		return size;
+	}
+
+	@Override
+	public Set<Entry<HashKey, Holder>> entrySet() {
+		return new AbstractSet<>() {
+			@Override
+			public Iterator<Entry<HashKey, Holder>> iterator() {
+				return new Itr<>(stripe -> stripe.snapshot(slot -> Map.entry(stripe.key(slot), stripe.holder(slot))));
+			}
+
+			@Override
+			public int size() {
+				return HashIndex.this.size();
+			}
+		};
+	}
+
+	@Override
+	public Collection<Holder> values() {
+		return new AbstractCollection<>() {
+			@Override
+			public Iterator<Holder> iterator() {
+				return new Itr<>(stripe -> stripe.snapshot(stripe::holder));
+			}
+
+			@Override
+			public int size() {
+				return HashIndex.this.size();
+			}
+		};
+	}
+
+	private static final class Stripe {
+		// One past the entry in each slot, so that zero marks an empty slot.
+		private int[] slots = new int[initialCapacity];
+		private int size;
+
+		// Every entry in the order it was added, packed rather than spread out over the slots.
+		// l1, l2, l3, l4 of each entry, in order.
+		private long[] keys = new long[initialCapacity * 4];
+		private long[] sizes = new long[initialCapacity];
+		private int[] crcs = new int[initialCapacity];
+		private Data[] data = new Data[initialCapacity];
+		// Only made once anything has a sketch.
+		private MinHash[] sketches;
+		// One past the last path added to each entry.
+		private int[] heads = new int[initialCapacity];
+
+		// Every path in the stripe, each with one past the path added before it to the same entry, else zero.
+		private EntryPath[] paths = new EntryPath[initialCapacity];
+		private int[] next = new int[initialCapacity];
+		private int pathCount;
+
+		/**
+		 * @param always Whether to add the path to an entry already there, else it's only added to a new one.
+		 */
+		synchronized Holder add(final HashKey key, final long crc32, final long size, final Data data, final MinHash sketch,
+								final EntryPath path, final boolean always) {
+			int slot = find(key);
+			if (slots[slot] != 0) {
+				final int entry = slots[slot] - 1;
+				final var existing = holder(entry, Set.of());
+				if (always) {
+					link(entry, path);
+				}
+				return existing;
+			}
+
+			final int entry = this.size;
+			if (entry == heads.length) {
+				grow(entry + (entry >> 1));
+			}
+			if ((entry + 1) * 4 > slots.length * 3) {
+				rehash(slots.length * 2);
+				slot = find(key);
+			}
+
+			final int k = entry * 4;
+			keys[k] = key.l1();
+			keys[k + 1] = key.l2();
+			keys[k + 2] = key.l3();
+			keys[k + 3] = key.l4();
+			sizes[entry] = size;
+			crcs[entry] = (int) crc32;
+			this.data[entry] = data;
+			if (sketch != null) {
+				if (sketches == null) {
+					sketches = new MinHash[heads.length];
+				}
+				sketches[entry] = sketch;
+			}
+			link(entry, path);
+
+			slots[slot] = entry + 1;
+			this.size++;
+			return null;
+		}
+
+		synchronized Holder get(final HashKey key) {
+			final int slot = slots[find(key)];
+			return slot == 0 ? null : holder(slot - 1);
+		}
+
+		synchronized int size() {
+			return size;
+		}
+
+		/**
+		 * @return Every entry in the stripe as it is now.
+		 */
+		synchronized <T> List<T> snapshot(final IntFunction<T> entry) {
+			final var list = new ArrayList<T>(size);
+			for (int i = 0; i < size; i++) {
+				list.add(entry.apply(i));
+			}
+			return list;
+		}
+
+		private HashKey key(final int entry) {
+			final int k = entry * 4;
+			return new HashKey(keys[k], keys[k + 1], keys[k + 2], keys[k + 3]);
+		}
+
+		private Holder holder(final int entry) {
+			int count = 0;
+			for (int path = heads[entry]; path != 0; path = next[path - 1]) {
+				count++;
+			}
+
+			final var array = new EntryPath[count];
+			for (int path = heads[entry]; path != 0; path = next[path - 1]) {
+				array[--count] = paths[path - 1];
+			}
+			Arrays.sort(array);
+			return holder(entry, new PathSet(array));
+		}
+
+		private Holder holder(final int entry, final Set<EntryPath> paths) {
+			return new Holder(
+					Integer.toUnsignedLong(crcs[entry]),
+					sizes[entry],
+					data[entry],
+					paths,
+					sketches == null ? null : sketches[entry]
+			);
+		}
+
+		private void link(final int entry, final EntryPath path) {
+			if (pathCount == paths.length) {
+				final int capacity = pathCount + (pathCount >> 1);
+				paths = Arrays.copyOf(paths, capacity);
+				next = Arrays.copyOf(next, capacity);
+			}
+			paths[pathCount] = path;
+			next[pathCount] = heads[entry];
+			heads[entry] = ++pathCount;
+		}
+
+		/**
+		 * @return The slot holding the key, else the empty slot it would go in.
+		 */
+		private int find(final HashKey key) {
+			final int mask = slots.length - 1;
+			// l1's top bits picked the stripe, so l2 picks the slot.
+			int slot = (int) key.l2() & mask;
+			while (slots[slot] != 0) {
+				final int k = (slots[slot] - 1) * 4;
+				if (keys[k] == key.l1() && keys[k + 1] == key.l2() && keys[k + 2] == key.l3() && keys[k + 3] == key.l4()) {
+					return slot;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		private void grow(final int capacity) {
+			keys = Arrays.copyOf(keys, capacity * 4);
+			sizes = Arrays.copyOf(sizes, capacity);
+			crcs = Arrays.copyOf(crcs, capacity);
+			data = Arrays.copyOf(data, capacity);
+			if (sketches != null) {
+				sketches = Arrays.copyOf(sketches, capacity);
+			}
+			heads = Arrays.copyOf(heads, capacity);
+		}
+
+		/**
+		 * Only the slots move, as the entries stay where they are.
+		 */
+		private void rehash(final int capacity) {
+			final var slots = new int[capacity];
+			final int mask = capacity - 1;
+			for (int entry = 0; entry < size; entry++) {
+				int slot = (int) keys[entry * 4 + 1] & mask;
+				while (slots[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				slots[slot] = entry + 1;
+			}
+			this.slots = slots;
+		}
+	}
+
+	private final class Itr<T> implements Iterator<T> {
+		private final Function<Stripe, List<T>> snapshot;
+		private int stripe = -1;
+		private Iterator<T> current = Collections.emptyIterator();
+
+		Itr(final Function<Stripe, List<T>> snapshot) {
+			this.snapshot = snapshot;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (!current.hasNext()) {
+				if (++stripe >= stripes.length) {
+					return false;
+				}
+				current = snapshot.apply(stripes[stripe]).iterator();
+			}
+			return true;
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return current.next();
+		}
+	}
+}
@@ -0,0 +1,250 @@
+package gay.ampflower.worldpacker.io;
+
+import gay.ampflower.worldpacker.Data;
+import gay.ampflower.worldpacker.Utils;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Comparator;
+import java.util.TreeSet;
+
+/**
+ * Keeps read in files off-heap, up to a budget, so that they needn't be read again when writing.
+ * <p>
+ * Once the budget is reached, the largest files are given up first, which frees the most memory
+ * for the fewest files read again. Large files read back near the speed of the disk, whereas
+ * many small ones pay for every open and seek. Anything given up is read back from where it came from when it's needed.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+public final class InputCache {
+	private static final Logger logger = Utils.logger();
+
+	// Direct buffers are indexed by int.
+	private static final long maxEntrySize = Integer.MAX_VALUE - 8;
+
+	public static final InputCache NONE = new InputCache(0);
+
+	private final long budget;
+	// Largest first, so that the next to go is always the first.
+	private final TreeSet<Entry> entries = new TreeSet<>(Comparator.comparingLong(Entry::size).reversed().thenComparingLong(entry -> entry.id));
+	private long used;
+	private long evicted;
+	private long nextId;
+
+	public InputCache(final long budget) {
+		this.budget = budget;
+	}
+
+	public boolean enabled() {
+		return budget > 0;
+	}
+
+	/**
+	 * Reserves room for a file of the given size, evicting larger files if need be.
+	 *
+	 * @param fallback The file itself, read from once evicted.
+	 * @return An entry with an empty buffer to read the file into, or null if it doesn't fit.
+	 */
+	public Entry allocate(final Data fallback, final long size) {
+		return allocate(size, fallback);
+	}
+
+	/**
+	 * Caches bytes already in hand that would be costly to come by again, such as a region as transformed.
+	 *
+	 * @param fallback What to read from once evicted, in place of the file itself.
+	 * @return An entry holding a copy of the bytes, or null if they don't fit.
+	 */
+	public Entry cache(final ByteBuffer bytes, final Data fallback) {
+		final var entry = allocate(bytes.remaining(), fallback);
+		if (entry == null) {
+			return null;
+		}
+		final var buffer = entry.buffer();
+		if (buffer != null) {
+			buffer.put(bytes.duplicate()).flip();
+		}
+		return entry;
+	}
+
+	private Entry allocate(final long size, final Data fallback) {
+		if (size > maxEntrySize || size > budget) {
+			return null;
+		}
+
+		synchronized (this) {
+			while (used + size > budget) {
+				final var largest = entries.isEmpty() ? null : entries.first();
+				if (largest == null || largest.size() <= size) {
+					return null;
+				}
+				drop(largest);
+				evicted++;
+			}
+			used += size;
+		}
+
+		final ByteBuffer buffer;
+		try {
+			buffer = ByteBuffer.allocateDirect((int) size);
+		} catch (OutOfMemoryError oom) {
+			logger.debug("Out of direct memory caching {}, consider raising -XX:MaxDirectMemorySize", fallback, oom);
+			synchronized (this) {
+				used -= size;
+			}
+			return null;
+		}
+
+		synchronized (this) {
+			final var entry = new Entry(this, nextId++, size, buffer, fallback);
+			entries.add(entry);
+			return entry;
+		}
+	}
+
+	private void drop(final Entry entry) {
+		if (entries.remove(entry)) {
+			entry.buffer = null;
+			used -= entry.size();
+		}
+	}
+
+	public synchronized long used() {
+		return used;
+	}
+
+	public long budget() {
+		return budget;
+	}
+
+	public synchronized long evicted() {
+		return evicted;
+	}
+
+	/**
+	 * A file that may be held in memory, falling back to whatever it was given once evicted.
+	 */
+	public static final class Entry implements Data {
+		private final InputCache cache;
+		private final long id;
+		private final long size;
+		private final Data fallback;
+		private volatile ByteBuffer buffer;
+
+		private Entry(final InputCache cache, final long id, final long size, final ByteBuffer buffer, final Data fallback) {
+			this.cache = cache;
+			this.id = id;
+			this.size = size;
+			this.buffer = buffer;
+			this.fallback = fallback;
+		}
+
+		public long size() {
+			return size;
+		}
+
+		/**
+		 * @return The buffer to read into or from, or null once evicted.
+		 */
+		public ByteBuffer buffer() {
+			return buffer;
+		}
+
+		/**
+		 * @return Whether both are still cached and hold different bytes.
+		 * Evicted entries can't be compared and never differ.
+		 */
+		public boolean contentDiffers(final Entry other) {
+			final var self = this.buffer;
+			final var that = other.buffer;
+			return self != null && that != null && !self.equals(that);
+		}
+
+		@Override
+		public byte[] toArray() throws IOException {
+			final var buffer = this.buffer;
+			if (buffer == null) {
+				return fallback.toArray();
+			}
+			final var array = new byte[buffer.remaining()];
+			buffer.duplicate().get(array);
+			return array;
+		}
+
+		@Override
+		public ReadableByteChannel openChannel() throws IOException {
+			final var buffer = this.buffer;
+			if (buffer == null) {
+				return fallback.openChannel();
+			}
+			return new BufferChannel(buffer.duplicate());
+		}
+
+		@Override
+		public long transferTo(final WritableByteChannel channel) throws IOException {
+			final var buffer = this.buffer;
+			if (buffer == null) {
+				return fallback.transferTo(channel);
+			}
+			final var view = buffer.duplicate();
+			while (view.hasRemaining()) {
+				channel.write(view);
+			}
+			return view.position();
+		}
+
+		@Override
+		public void release() {
+			synchronized (cache) {
+				cache.drop(this);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "Cached[" + fallback + ", " + (buffer == null ? "evicted" : "storing " + Utils.displaySize(size)) + "]";
+		}
+	}
+
+	/**
+	 * Reads out of a view of a cached buffer, leaving the buffer itself untouched.
+	 */
+	private static final class BufferChannel implements ReadableByteChannel {
+		private ByteBuffer view;
+
+		private BufferChannel(final ByteBuffer view) {
+			this.view = view;
+		}
+
+		@Override
+		public int read(final ByteBuffer target) throws IOException {
+			final var view = this.view;
+			if (view == null) {
+				throw new ClosedChannelException();
+			}
+			if (!view.hasRemaining()) {
+				return -1;
+			}
+			final int length = Math.min(view.remaining(), target.remaining());
+			target.put(view.slice(view.position(), length));
+			view.position(view.position() + length);
+			return length;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return view != null;
+		}
+
+		@Override
+		public void close() {
+			view = null;
+		}
+	}
+}
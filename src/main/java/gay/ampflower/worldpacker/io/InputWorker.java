@@ -1,21 +1,43 @@
 package gay.ampflower.worldpacker.io;
 
 import gay.ampflower.worldpacker.Data;
+import gay.ampflower.worldpacker.EntryPath;
+import gay.ampflower.worldpacker.HashKey;
 import gay.ampflower.worldpacker.Holder;
-import gay.ampflower.worldpacker.Sha256HashHolder;
+import gay.ampflower.worldpacker.PathTrie;
 import gay.ampflower.worldpacker.Utils;
+import gay.ampflower.worldpacker.mcregion.RegionReader;
+import gay.ampflower.worldpacker.mcregion.RegionTransform;
+import gay.ampflower.worldpacker.mcregion.RepackedRegion;
+import gay.ampflower.worldpacker.mcregion.TransformedRegion;
+import gay.ampflower.worldpacker.metrics.FileReadEvent;
+import gay.ampflower.worldpacker.metrics.Histogram;
+import gay.ampflower.worldpacker.metrics.Metrics;
 import org.apache.commons.lang3.time.StopWatch;
 import org.slf4j.Logger;
 
 import java.io.IOException;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
 
 /**
  * @author Ampflower
@@ -25,16 +47,32 @@ public final class InputWorker {
 
 	private final Path root;
 
-	private final boolean cacheInput;
-	private final int jobs;
+	private final InputCache cache;
+	private final HashCache hashCache;
+	private final JobLimiter limiter;
+	private final Dedup dedup;
+	private final HashAlgorithm algorithm;
 
-	private final DigestStreamFactory digestFactory;
-	private final ChecksumStreamFactory cksumFactory;
+	private final FileHasher hasher;
+	private final long chunkThreshold;
 
-	public final Map<Sha256HashHolder, Holder> map = new ConcurrentHashMap<>();
+	private final boolean repackRegions;
+	private final boolean transformRegions;
+	private final boolean regionStats;
+
+	public final HashIndex map = new HashIndex();
+
+	// Every path shares its directories with every other in the same directory.
+	private final PathTrie names = new PathTrie();
+
+	// Files found to have no duplicates without ever being digested, so with nothing to key them by.
+	private final Queue<Holder> unhashed = new ConcurrentLinkedQueue<>();
 
 	private final StopWatch stopwatch;
 
+	// Told about every path as soon as it's been added to its holder, if anything's streaming.
+	private BiConsumer<Holder, EntryPath> sink;
+
 	// Stats counters
 	private final AtomicInteger nonRegularCount = new AtomicInteger();
 	private final AtomicInteger errorCount = new AtomicInteger();
@@ -45,102 +83,527 @@ public final class InputWorker {
 	public final AtomicInteger duplicatedCount = new AtomicInteger();
 	public final AtomicLong duplicatedSize = new AtomicLong();
 
+	// Region stats, only counted when asked for.
+	private final Set<HashKey> chunks = ConcurrentHashMap.newKeySet();
+
+	public final AtomicInteger chunkCount = new AtomicInteger();
+	public final AtomicLong chunkSize = new AtomicLong();
+
+	public final AtomicInteger duplicatedChunkCount = new AtomicInteger();
+	public final AtomicLong duplicatedChunkSize = new AtomicLong();
+
+	// Content-defined chunks, only counted when files get chunked.
+	public final AtomicInteger chunkedCount = new AtomicInteger();
+
+	public final AtomicInteger cdcChunkCount = new AtomicInteger();
+	public final AtomicLong cdcChunkSize = new AtomicLong();
+
+	public final AtomicInteger duplicatedCdcChunkCount = new AtomicInteger();
+	public final AtomicLong duplicatedCdcChunkSize = new AtomicLong();
+
+	// Metrics, only reported at the end.
+	private final Histogram readLatency = new Histogram();
+	private final AtomicLong bytesRead = new AtomicLong();
+	private final AtomicLong walked = new AtomicLong();
+	private final AtomicLong walkNanos = new AtomicLong();
+
 	public InputWorker(
 			final Path root,
-			final boolean cacheInput,
-			final int jobs,
-			final DigestStreamFactory digestFactory,
-			final ChecksumStreamFactory cksumFactory,
+			final InputCache cache,
+			final HashCache hashCache,
+			final JobLimiter limiter,
+			final Options options,
 			final StopWatch stopwatch
 	) {
 		this.root = root;
-		this.cacheInput = cacheInput;
-		this.jobs = jobs;
-		this.digestFactory = digestFactory;
-		this.cksumFactory = cksumFactory;
+		this.cache = cache;
+		this.hashCache = hashCache;
+		this.limiter = limiter;
+		this.dedup = options.dedup();
+		this.algorithm = options.algorithm();
+		this.hasher = new FileHasher(options.algorithm(), options.cksumFactory(), options.mapThreshold(), options.sketch());
+		this.chunkThreshold = options.chunkThreshold();
+		this.repackRegions = options.repackRegions();
+		this.transformRegions = options.transformRegions();
+		this.regionStats = options.regionStats();
 		this.stopwatch = stopwatch;
 	}
 
-	private void work0(Path path) throws IOException {
-		if (!Files.isRegularFile(path)) {
-			this.nonRegularCount.incrementAndGet();
-			return;
+	/**
+	 * @param digest Whether the file could have a duplicate and so needs hashing, else it's only checksummed.
+	 * @return The amount of bytes read from disk.
+	 */
+	private long work0(Path path, final BasicFileAttributes attributes, final boolean digest) throws IOException {
+		long size = attributes.size();
+		if (size == 0L) {
+			return 0L;
 		}
 
-		long size = Files.size(path);
-		if (size == 0L) {
-			return;
+		final boolean region = (repackRegions || transformRegions || regionStats) && RegionReader.isRegion(path);
+		final var relative = root.relativize(path).toString();
+
+		// Chunked files are only ever stored as their chunks, which the hash cache can't hold.
+		if (!region && chunks(size)) {
+			return workChunked(path);
+		}
+
+		final var file = name(path, "");
+
+		// Stats need the chunks themselves, which the cache doesn't have.
+		if (!(region && regionStats)) {
+			final boolean repacked = region && repackRegions;
+			final boolean transformed = region && transformRegions;
+			final var cached = hashCache.get(relative, attributes, repacked, transformed, hasher.checksums());
+			if (cached != null) {
+				final Data data;
+				if (transformed) {
+					data = new TransformedRegion(path, repacked);
+				} else if (repacked) {
+					data = new RepackedRegion(path);
+				} else {
+					data = data(file, size);
+				}
+				add(transformed ? name(path, RegionTransform.extension) : file, cached, data);
+				return 0L;
+			}
 		}
 
-		try (
-				final var input = Files.newInputStream(path);
-				final var digest = digestFactory.of(input);
-				final var cksum = cksumFactory.of(digest.inputStream())
-		) {
+		if (region && workRegion(path, file, relative, attributes)) {
+			return size;
+		}
+
+		final var entry = cache.allocate(data(file, size), size);
+		final var buffer = entry == null ? null : entry.buffer();
+
+		// Nothing to take from the file, so it's left until it's written.
+		if (!digest && !hasher.checksums() && buffer == null) {
+			addUnhashed(file, new FileHasher.Hashed(null, 0L, size), data(file, size));
+			return 0L;
+		}
+
+		final FileHasher.Hashed hashed;
+
+		try {
+			hashed = digest ? hasher.hash(path, buffer) : hasher.checksum(path, buffer);
+		} catch (IOException | RuntimeException e) {
+			if (entry != null) {
+				entry.release();
+			}
+			throw e;
+		}
+
+		final Data data = buffer != null ? entry : data(file, size);
+
+		if (hashed.key() == null) {
+			addUnhashed(file, hashed, data);
+			return hashed.size();
+		}
+
+		hashCache.put(relative, attributes, false, false, hasher.checksums(), hashed);
+		add(file, hashed, data);
+		return hashed.size();
+	}
 
-			final Data data;
+	/**
+	 * Reads in a region as a whole, counting its chunks, and repacking and transforming it as asked.
+	 *
+	 * @return Whether it was a valid region, else it should be read as any other file.
+	 */
+	private boolean workRegion(final Path path, final EntryPath file, final String relative, final BasicFileAttributes attributes) throws IOException {
+		final var bytes = ByteBuffer.wrap(Files.readAllBytes(path));
+		final RegionReader region;
+		ByteBuffer stored = bytes;
 
-			if (this.cacheInput) {
-				data = Data.storeBytes(path, cksum.inputStream().readAllBytes());
-			} else {
-				data = Data.storePath(path);
-				cksum.inputStream().transferTo(OutputStream.nullOutputStream());
+		try {
+			region = new RegionReader(bytes);
+			if (repackRegions) {
+				stored = ByteBuffer.wrap(region.repack());
 			}
+		} catch (IOException malformed) {
+			logger.debug("{} isn't a region that can be read, storing as is", path, malformed);
+			return false;
+		}
 
-			var hash = new Sha256HashHolder(digest.digest().digest());
-			var set = map.computeIfAbsent(hash, $ -> new Holder(cksum.checksum().getValue(), size, data));
+		final boolean repacked = stored != bytes;
+		boolean transformed = false;
+		if (transformRegions) {
+			try {
+				stored = ByteBuffer.wrap(RegionTransform.transform(stored));
+				transformed = true;
+			} catch (IOException overlapping) {
+				logger.debug("{} can't be transformed, storing untransformed", path, overlapping);
+			}
+		}
+
+		Data data;
+		if (transformed) {
+			data = new TransformedRegion(path, repacked);
+		} else if (repacked) {
+			data = new RepackedRegion(path);
+		} else {
+			data = data(file, bytes.remaining());
+		}
+
+		// Held onto as stored where there's room, rather than repacked and transformed all over again when written.
+		if (stored != bytes) {
+			final var entry = cache.cache(stored, data);
+			if (entry != null) {
+				data = entry;
+			}
+		}
 
-			path = root.relativize(path);
+		final var hashed = hasher.hash(stored);
+		hashCache.put(relative, attributes, repacked, transformed, hasher.checksums(), hashed);
 
-			if (set.paths().isEmpty()) {
-				this.uniqueCount.incrementAndGet();
-				this.uniqueSize.addAndGet(size);
-				logger.debug("{} {}", hash, path);
-			} else {
-				var crc = cksum.checksum().getValue();
-				if (set.crc32() != crc)
-					throw new AssertionError(path + " had mismatched CRC " + Long.toHexString(crc) + ", expected " + Long.toHexString(set.crc32()) + "; Existing entries: " + set.paths());
-				if (set.size() != size)
-					throw new AssertionError(path + " had mismatched size " + size + ", expected " + set.size() + "; Existing entries: " + set.paths());
+		final var kept = add(transformed ? name(path, RegionTransform.extension) : file, hashed, data);
 
-				if (this.cacheInput && !data.equals(set.data())) {
-					throw new AssertionError(path + " had a hash collision with " + set.paths());
+		// Only count the chunks of the first of any identical regions, as the rest don't need anything more stored.
+		if (regionStats && kept == data) {
+			for (final var chunk : region.chunks()) {
+				this.chunkCount.incrementAndGet();
+				this.chunkSize.addAndGet(chunk.length());
+				if (!this.chunks.add(hasher.key(chunk.payload()))) {
+					this.duplicatedChunkCount.incrementAndGet();
+					this.duplicatedChunkSize.addAndGet(chunk.length());
 				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Cuts the file into chunks by its contents as it's read, storing every chunk once under its key,
+	 * and the file itself as the list of its chunks.
+	 *
+	 * @return The amount of bytes read from disk.
+	 * @see ChunkedFile
+	 */
+	private long workChunked(final Path path) throws IOException {
+		final var chunks = hasher.chunk(path);
+		final var file = name(path, "");
+
+		long size = 0L;
+		for (final var chunk : chunks) {
+			final var hashed = chunk.hashed();
+			addChunk(hashed, Data.slicePath(root, file, chunk.offset(), hashed.size()));
+			size += hashed.size();
+		}
+
+		final var listing = ChunkedFile.write(algorithm, chunks);
+		this.chunkedCount.incrementAndGet();
+		add(name(path, ChunkedFile.extension), hasher.hash(ByteBuffer.wrap(listing)), Data.storeBytes(file, listing));
+		return size;
+	}
+
+	/**
+	 * @return Whether a file of the given size gets chunked.
+	 */
+	private boolean chunks(final long size) {
+		return chunkThreshold > 0 && size >= chunkThreshold;
+	}
+
+	/**
+	 * @return The file, read again from the input when written, and mapped rather than read onto the heap if large enough.
+	 */
+	private Data data(final EntryPath file, final long size) throws IOException {
+		return hasher.maps(size) ? Data.mapPath(root, file) : Data.storePath(root, file);
+	}
+
+	/**
+	 * @param extension Appended to the file's name when it's stored as something other than itself, else empty.
+	 * @return The path the file goes by in the archive.
+	 */
+	private EntryPath name(final Path file, final String extension) {
+		final var relative = root.relativize(file);
+		if (!extension.isEmpty()) {
+			return names.path(relative.resolveSibling(relative.getFileName() + extension));
+		}
+		return names.path(relative);
+	}
+
+	/**
+	 * Adds the path to the entry for its hash, making one if it's the first.
+	 *
+	 * @return The data the entry is stored as, which is only the given data if it's the first.
+	 */
+	private Data add(final EntryPath path, final FileHasher.Hashed hashed, final Data data) {
+		final long crc = hashed.crc32();
+		final long size = hashed.size();
+
+		var hash = hashed.key();
+		final var existing = map.add(hash, crc, size, data, hashed.sketch(), path);
+
+		if (existing == null) {
+			this.uniqueCount.incrementAndGet();
+			this.uniqueSize.addAndGet(size);
+			logger.debug("{} {}", hash, path);
+
+			if (sink != null) {
+				sink.accept(new Holder(crc, size, data, Set.of(path), hashed.sketch()), path);
+			}
+			return data;
+		}
+
+		if (existing.crc32() != crc)
+			throw new AssertionError(path + " had mismatched CRC " + Long.toHexString(crc) + ", expected " + Long.toHexString(existing.crc32()) + "; Existing entries: " + map.get(hash).paths());
+		if (existing.size() != size)
+			throw new AssertionError(path + " had mismatched size " + size + ", expected " + existing.size() + "; Existing entries: " + map.get(hash).paths());
+
+		if (data instanceof InputCache.Entry self && existing.data() instanceof InputCache.Entry other
+			&& self.contentDiffers(other)) {
+			throw new AssertionError(path + " had a hash collision with " + map.get(hash).paths());
+		}
+
+		this.duplicatedCount.incrementAndGet();
+		this.duplicatedSize.addAndGet(size);
+		logger.debug("=== {} -> {}", path, hash);
+
+		if (existing.data() != data) {
+			// Already have it, no need to hold onto it twice.
+			data.release();
+		}
+
+		if (sink != null) {
+			sink.accept(existing, path);
+		}
+		return existing.data();
+	}
+
+	/**
+	 * Adds a chunk of a chunked file under its key, unless it's already there.
+	 */
+	private void addChunk(final FileHasher.Hashed hashed, final Data data) {
+		final var path = names.path(ChunkedFile.chunkPath(hashed.key()));
 
-				this.duplicatedCount.incrementAndGet();
-				this.duplicatedSize.addAndGet(size);
-				logger.debug("=== {} -> {}", path, set);
+		this.cdcChunkCount.incrementAndGet();
+		this.cdcChunkSize.addAndGet(hashed.size());
+
+		if (map.addIfAbsent(hashed.key(), hashed.crc32(), hashed.size(), data, path)) {
+			if (sink != null) {
+				sink.accept(new Holder(hashed.crc32(), hashed.size(), data, Set.of(path), null), path);
 			}
-			set.paths().add(path);
+		} else {
+			this.duplicatedCdcChunkCount.incrementAndGet();
+			this.duplicatedCdcChunkSize.addAndGet(hashed.size());
+		}
+	}
+
+	/**
+	 * Adds a file known to have no duplicates, which only has its checksum.
+	 */
+	private void addUnhashed(final EntryPath path, final FileHasher.Hashed hashed, final Data data) {
+		final var holder = new Holder(hashed.crc32(), hashed.size(), data, hashed.sketch());
+
+		this.uniqueCount.incrementAndGet();
+		this.uniqueSize.addAndGet(hashed.size());
+		logger.debug("unhashed {}", path);
+
+		holder.paths().add(path);
+		unhashed.add(holder);
+		if (sink != null) {
+			sink.accept(holder, path);
 		}
 	}
 
 	public void work(final Path path) {
+		final BasicFileAttributes attributes;
+		try {
+			attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (final IOException e) {
+			fail(path, e);
+			return;
+		}
+
+		if (!attributes.isRegularFile()) {
+			this.nonRegularCount.incrementAndGet();
+			return;
+		}
+		work(path, attributes, true);
+	}
+
+	private long work(final Path path, final BasicFileAttributes attributes, final boolean digest) {
+		final var event = new FileReadEvent();
+		event.begin();
+		final long start = System.nanoTime();
+
+		long bytes = 0L;
 		try {
-			work0(path);
+			bytes = work0(path, attributes, digest);
 		} catch (final IOException e) {
-			this.errorCount.incrementAndGet();
-			logger.error("Cannot read {}", path, e);
+			fail(path, e);
 		}
+
+		readLatency.record(System.nanoTime() - start);
+		bytesRead.addAndGet(bytes);
+
+		event.end();
+		if (event.shouldCommit()) {
+			event.path = path.toString();
+			event.bytes = bytes;
+			event.digested = digest;
+			event.commit();
+		}
+		return bytes;
 	}
 
 	public InputWorker digest() {
-		final var semaphore = new Semaphore(jobs);
+		if (dedup == Dedup.staged) {
+			digestStaged();
+			return this;
+		}
 
-		try (final var stream = Files.walk(root)) {
-			final var list = stream.map(path -> {
-				semaphore.acquireUninterruptibly();
-				return Thread.startVirtualThread(new Job(this, path, semaphore));
-			}).toList();
+		walk(new TreeWalker.Visitor() {
+			@Override
+			public void visit(final Path path, final BasicFileAttributes attributes) {
+				if (!attributes.isRegularFile()) {
+					nonRegularCount.incrementAndGet();
+					return;
+				}
+				submit(() -> work(path, attributes, true));
+			}
 
-			list.forEach(Utils::join);
-		} catch (IOException e) {
-			logger.error("Cannot read {}", root, e);
-		}
+			@Override
+			public void failed(final Path path, final IOException exception) {
+				fail(path, exception);
+			}
+		});
 
+		limiter.awaitIdle();
 		return this;
 	}
 
+	/**
+	 * Groups every file by size, then samples those sharing a size, and only digests those whose samples still match.
+	 * Anything found alone along the way can't be a duplicate, and only gets checksummed, if that.
+	 */
+	private void digestStaged() {
+		final var sizes = new ConcurrentHashMap<Long, Queue<Found>>();
+
+		walk(new TreeWalker.Visitor() {
+			@Override
+			public void visit(final Path path, final BasicFileAttributes attributes) {
+				if (!attributes.isRegularFile()) {
+					nonRegularCount.incrementAndGet();
+				} else if ((repackRegions || transformRegions || regionStats) && RegionReader.isRegion(path)) {
+					// What gets stored isn't necessarily the file as is, so its size says nothing.
+					submit(() -> work(path, attributes, true));
+				} else if (chunks(attributes.size())) {
+					// Chunks can be shared with files of any size.
+					submit(() -> work(path, attributes, true));
+				} else if (attributes.size() > 0L) {
+					sizes.computeIfAbsent(attributes.size(), $ -> new ConcurrentLinkedQueue<>()).add(new Found(path, attributes));
+				}
+			}
+
+			@Override
+			public void failed(final Path path, final IOException exception) {
+				fail(path, exception);
+			}
+		});
+
+		final var samples = new ConcurrentHashMap<Path, HashKey>();
+		for (final var found : sizes.values()) {
+			if (found.size() == 1) {
+				final var file = found.peek();
+				submit(() -> work(file.path(), file.attributes(), false));
+				continue;
+			}
+			for (final var file : found) {
+				submit(() -> {
+					try {
+						samples.put(file.path(), hasher.sample(file.path()));
+					} catch (IOException e) {
+						fail(file.path(), e);
+					}
+					return 0L;
+				});
+			}
+		}
+		limiter.awaitIdle();
+
+		for (final var found : sizes.values()) {
+			if (found.size() == 1) {
+				continue;
+			}
+
+			final var matching = new HashMap<HashKey, List<Found>>();
+			for (final var file : found) {
+				final var sample = samples.get(file.path());
+				if (sample != null) {
+					matching.computeIfAbsent(sample, $ -> new ArrayList<>()).add(file);
+				}
+			}
+
+			for (final var group : matching.values()) {
+				final boolean digest = group.size() > 1;
+				for (final var file : group) {
+					submit(() -> work(file.path(), file.attributes(), digest));
+				}
+			}
+		}
+		limiter.awaitIdle();
+	}
+
+	private void walk(final TreeWalker.Visitor visitor) {
+		final long start = System.nanoTime();
+		walked.addAndGet(TreeWalker.walk(root, limiter.max(), visitor));
+		walkNanos.addAndGet(System.nanoTime() - start);
+	}
+
+	private void fail(final Path path, final IOException exception) {
+		this.errorCount.incrementAndGet();
+		logger.error("Cannot read {}", path, exception);
+	}
+
+	/**
+	 * @param task Returns the amount of bytes it read, for the limiter to go off of.
+	 */
+	private void submit(final LongSupplier task) {
+		limiter.acquire();
+		Thread.startVirtualThread(new Job(task, limiter));
+	}
+
+	/**
+	 * Digests while handing every path off to the sink as soon as it's been read,
+	 * allowing the writer to start before reading is done.
+	 * <p>
+	 * The sink may block to apply back pressure on the readers. Holders it's given only stand for the file's
+	 * contents, and share their {@link Data} with every other path of the same contents;
+	 * which paths they hold is left undefined.
+	 */
+	public InputWorker digest(final BiConsumer<Holder, EntryPath> sink) {
+		this.sink = sink;
+		return this.digest();
+	}
+
+	/**
+	 * @return Every holder, including those for files that were never digested.
+	 */
+	public Collection<Holder> holders() {
+		if (unhashed.isEmpty()) {
+			return map.values();
+		}
+		return new AbstractCollection<>() {
+			@Override
+			public Iterator<Holder> iterator() {
+				return Stream.concat(map.values().stream(), unhashed.stream()).iterator();
+			}
+
+			@Override
+			public int size() {
+				return map.size() + unhashed.size();
+			}
+		};
+	}
+
+	/**
+	 * @return What every key in {@link #map} was made with.
+	 */
+	public HashAlgorithm algorithm() {
+		return this.algorithm;
+	}
+
 	public int totalFiles() {
 		return this.uniqueCount.get() + this.duplicatedCount.get();
 	}
@@ -156,13 +619,163 @@ public final class InputWorker {
 				this.uniqueCount.get(), Utils.displaySize(this.uniqueSize.get()),
 				this.duplicatedCount.get(), Utils.displaySize(this.duplicatedSize.get())
 		);
+		if (!this.unhashed.isEmpty()) {
+			logger.info("{} files had no possible duplicates and were only checksummed", this.unhashed.size());
+		}
+		if (this.limiter.adaptive()) {
+			logger.info("Reading with up to {} jobs, {}/s at {} µs per job; raised {} times, lowered {} times",
+					this.limiter.limit(), Utils.displaySize(this.limiter.throughput()),
+					TimeUnit.NANOSECONDS.toMicros(this.limiter.latency()),
+					this.limiter.increases(), this.limiter.decreases()
+			);
+		}
+		if (this.regionStats) {
+			logger.info("Regions hold {} ({}) chunks, {} ({}) of which are duplicates",
+					this.chunkCount.get(), Utils.displaySize(this.chunkSize.get()),
+					this.duplicatedChunkCount.get(), Utils.displaySize(this.duplicatedChunkSize.get())
+			);
+		}
+		if (this.chunkThreshold > 0) {
+			logger.info("Chunked {} files into {} ({}) chunks, {} ({}) of which are duplicates",
+					this.chunkedCount.get(),
+					this.cdcChunkCount.get(), Utils.displaySize(this.cdcChunkSize.get()),
+					this.duplicatedCdcChunkCount.get(), Utils.displaySize(this.duplicatedCdcChunkSize.get())
+			);
+		}
+		if (this.cache.enabled()) {
+			logger.info("Caching {} of {}, {} evicted",
+					Utils.displaySize(this.cache.used()), Utils.displaySize(this.cache.budget()),
+					this.cache.evicted()
+			);
+		}
+	}
+
+	/**
+	 * Reports on the walk, the reads and the hashing, once digesting's done.
+	 */
+	public void report(final Metrics metrics) {
+		final long elapsed = stopwatch.getNanoTime();
+
+		final var walk = metrics.object("walk");
+		walk.put("entries", walked.get());
+		walk.put("nanos", walkNanos.get());
+		walk.put("entriesPerSecond", walkNanos.get() == 0L ? 0D : walked.get() * 1_000_000_000D / walkNanos.get());
+
+		final var read = metrics.object("read");
+		read.put("files", totalFiles());
+		read.put("uniqueFiles", uniqueCount.get());
+		read.put("duplicateFiles", duplicatedCount.get());
+		read.put("unhashedFiles", unhashed.size());
+		read.put("nonRegular", nonRegularCount.get());
+		read.put("errors", errorCount.get());
+		read.put("bytes", bytesRead.get());
+		read.put("nanos", elapsed);
+		read.put("mibPerSecond", Metrics.mibPerSecond(bytesRead.get(), elapsed));
+		read.put("latency", readLatency);
+
+		final var hash = metrics.object("hash");
+		hash.put("algorithm", algorithm.name());
+		hash.put("crc32", hasher.checksums());
+		hash.put("bytes", hasher.hashBytes());
+		hash.put("nanos", hasher.hashNanos());
+		hash.put("mibPerSecondPerThread", Metrics.mibPerSecond(hasher.hashBytes(), hasher.hashNanos()));
+
+		limiter.report(metrics.object("jobs"));
+
+		if (chunkThreshold > 0) {
+			final var chunking = metrics.object("chunking");
+			chunking.put("threshold", chunkThreshold);
+			chunking.put("files", chunkedCount.get());
+			chunking.put("chunks", cdcChunkCount.get());
+			chunking.put("bytes", cdcChunkSize.get());
+			chunking.put("duplicateChunks", duplicatedCdcChunkCount.get());
+			chunking.put("duplicateBytes", duplicatedCdcChunkSize.get());
+		}
+		if (hashCache.enabled()) {
+			final var hashCacheMetrics = metrics.object("hashCache");
+			hashCacheMetrics.put("hits", hashCache.hits());
+			hashCacheMetrics.put("misses", hashCache.misses());
+		}
+		if (cache.enabled()) {
+			final var cacheMetrics = metrics.object("inputCache");
+			cacheMetrics.put("used", cache.used());
+			cacheMetrics.put("budget", cache.budget());
+			cacheMetrics.put("evicted", cache.evicted());
+		}
+	}
+
+	private record Found(Path path, BasicFileAttributes attributes) {
 	}
 
-	private record Job(InputWorker worker, Path path, Semaphore semaphore) implements Runnable {
+	private record Job(LongSupplier task, JobLimiter limiter) implements Runnable {
 		@Override
 		public void run() {
-			worker.work(path);
-			semaphore.release();
+			final long start = System.nanoTime();
+			long bytes = 0L;
+			try {
+				bytes = task.getAsLong();
+			} finally {
+				limiter.release(bytes, System.nanoTime() - start);
+			}
+		}
+	}
+
+	/**
+	 * How files are read, hashed and stored. Start from {@link #of(HashAlgorithm)} and set only what differs.
+	 *
+	 * @param cksumFactory   The checksum archives need alongside the digest, or null if none do.
+	 * @param mapThreshold   Files at or above this size are mapped rather than read, or 0 to never map.
+	 * @param chunkThreshold Files at or above this size are cut into chunks, or 0 to never chunk.
+	 * @param sketch         Whether to sketch files for {@code --order similarity}.
+	 */
+	public record Options(
+			Dedup dedup,
+			HashAlgorithm algorithm,
+			ChecksumStreamFactory cksumFactory,
+			long mapThreshold,
+			long chunkThreshold,
+			boolean sketch,
+			boolean repackRegions,
+			boolean transformRegions,
+			boolean regionStats
+	) {
+		/**
+		 * @return Hashing every file with the given algorithm, with nothing else asked for.
+		 */
+		public static Options of(final HashAlgorithm algorithm) {
+			return new Options(Dedup.full, algorithm, null, 0L, 0L, false, false, false, false);
+		}
+
+		public Options withDedup(final Dedup dedup) {
+			return new Options(dedup, algorithm, cksumFactory, mapThreshold, chunkThreshold, sketch, repackRegions, transformRegions, regionStats);
+		}
+
+		public Options withChecksums(final ChecksumStreamFactory cksumFactory) {
+			return new Options(dedup, algorithm, cksumFactory, mapThreshold, chunkThreshold, sketch, repackRegions, transformRegions, regionStats);
+		}
+
+		public Options withMapThreshold(final long mapThreshold) {
+			return new Options(dedup, algorithm, cksumFactory, mapThreshold, chunkThreshold, sketch, repackRegions, transformRegions, regionStats);
+		}
+
+		public Options withChunkThreshold(final long chunkThreshold) {
+			return new Options(dedup, algorithm, cksumFactory, mapThreshold, chunkThreshold, sketch, repackRegions, transformRegions, regionStats);
+		}
+
+		public Options withSketch(final boolean sketch) {
+			return new Options(dedup, algorithm, cksumFactory, mapThreshold, chunkThreshold, sketch, repackRegions, transformRegions, regionStats);
+		}
+
+		public Options withRepackRegions(final boolean repackRegions) {
+			return new Options(dedup, algorithm, cksumFactory, mapThreshold, chunkThreshold, sketch, repackRegions, transformRegions, regionStats);
+		}
+
+		public Options withTransformRegions(final boolean transformRegions) {
+			return new Options(dedup, algorithm, cksumFactory, mapThreshold, chunkThreshold, sketch, repackRegions, transformRegions, regionStats);
+		}
+
+		public Options withRegionStats(final boolean regionStats) {
+			return new Options(dedup, algorithm, cksumFactory, mapThreshold, chunkThreshold, sketch, repackRegions, transformRegions, regionStats);
 		}
 	}
 }
@@ -0,0 +1,274 @@
+package gay.ampflower.worldpacker.io;
+
+import gay.ampflower.worldpacker.metrics.JobWaitEvent;
+import gay.ampflower.worldpacker.metrics.Metrics;
+import picocli.CommandLine;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits how many reading jobs run at once, as given by {@code <jobs>}, {@code auto} or {@code auto:<min>-<max>}.
+ * <p>
+ * A fixed limit never changes. An adaptive limit is adjusted AIMD-style every window of completed jobs:
+ * raised by one while the limit is being reached and reads aren't slowing down, and cut by a quarter once
+ * reads take more than twice as long as the baseline without any more bytes per second to show for it.
+ * A spinning disk will settle low, as seeking between files costs more than it gains, whereas an SSD will keep
+ * climbing until its queue is full.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+public final class JobLimiter {
+	private static final long windowNanos = TimeUnit.MILLISECONDS.toNanos(100);
+	// Too few reads to judge anything by, unless they're taking forever.
+	private static final int windowJobs = 8;
+	private static final long longWindowNanos = TimeUnit.SECONDS.toNanos(1);
+
+	private static final double latencyTolerance = 2.0D;
+	private static final double decrease = 0.75D;
+
+	private final int min;
+	private final int max;
+	private final boolean adaptive;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+
+	// Read outside the lock for logging.
+	private volatile int limit;
+	private int running;
+
+	// Current window
+	private long windowStart = System.nanoTime();
+	private int windowCompleted;
+	private long windowBytes;
+	private long windowLatency;
+	private int windowPeak;
+
+	// Last decision
+	private volatile long throughput;
+	private volatile long latency;
+	private long baseline = Long.MAX_VALUE;
+	private volatile int increases;
+	private volatile int decreases;
+
+	// Time spent blocked in acquire, for metrics.
+	private long waits;
+	private long waitNanos;
+
+	private JobLimiter(final int min, final int max, final int initial, final boolean adaptive) {
+		this.min = min;
+		this.max = max;
+		this.limit = initial;
+		this.adaptive = adaptive;
+	}
+
+	public static JobLimiter fixed(final int jobs) {
+		return new JobLimiter(jobs, jobs, jobs, false);
+	}
+
+	/**
+	 * @return A limit starting out at the minimum, adjusted as jobs complete.
+	 */
+	public static JobLimiter adaptive(final int min, final int max) {
+		if (min < 1 || max < min) {
+			throw new IllegalArgumentException("Adaptive jobs must be within 1 to " + Integer.MAX_VALUE + ", and min no more than max: " + min + "-" + max);
+		}
+		return new JobLimiter(min, max, min, true);
+	}
+
+	/**
+	 * @param value {@code 0} for the amount of threads available multiplied by 4, any negative for no limit,
+	 *              {@code auto} for an adaptive limit between 1 and the amount of threads available multiplied by 16,
+	 *              {@code auto:<min>-<max>} to give the adaptive limit's bounds, or else the fixed limit.
+	 */
+	public static JobLimiter parse(final String value) {
+		final int processors = Runtime.getRuntime().availableProcessors();
+		if ("auto".equals(value)) {
+			return adaptive(1, processors * 16);
+		}
+		if (value.startsWith("auto:")) {
+			final int split = value.indexOf('-', 5);
+			if (split < 0) {
+				throw new IllegalArgumentException("Adaptive jobs must be given as auto:<min>-<max>: " + value);
+			}
+			return adaptive(Integer.parseInt(value.substring(5, split)), Integer.parseInt(value.substring(split + 1)));
+		}
+
+		final int jobs = Integer.parseInt(value);
+		if (jobs == 0) {
+			return fixed(processors * 4);
+		}
+		return fixed(jobs < 0 ? Integer.MAX_VALUE : jobs);
+	}
+
+	/**
+	 * Waits until there's room for another job.
+	 */
+	public void acquire() {
+		lock.lock();
+		try {
+			if (running >= limit) {
+				final var event = new JobWaitEvent();
+				event.begin();
+				final long start = System.nanoTime();
+
+				while (running >= limit) {
+					changed.awaitUninterruptibly();
+				}
+
+				waits++;
+				waitNanos += System.nanoTime() - start;
+				event.limit = limit;
+				event.commit();
+			}
+			running++;
+			windowPeak = Math.max(windowPeak, running);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Marks a job as done, adjusting the limit if the window's over.
+	 *
+	 * @param bytes The amount of bytes the job read.
+	 * @param nanos How long the job took.
+	 */
+	public void release(final long bytes, final long nanos) {
+		lock.lock();
+		try {
+			running--;
+			windowCompleted++;
+			windowBytes += bytes;
+			windowLatency += nanos;
+
+			if (adaptive) {
+				adjust();
+			}
+
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until every job has been released.
+	 */
+	public void awaitIdle() {
+		lock.lock();
+		try {
+			while (running > 0) {
+				changed.awaitUninterruptibly();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void adjust() {
+		final long now = System.nanoTime();
+		final long elapsed = now - windowStart;
+		if (elapsed < windowNanos || (windowCompleted < windowJobs && elapsed < longWindowNanos)) {
+			return;
+		}
+
+		final long lastThroughput = throughput;
+		throughput = (long) (windowBytes * (double) TimeUnit.SECONDS.toNanos(1) / elapsed);
+		latency = windowLatency / windowCompleted;
+
+		// Follows the latency down at once, but only creeps up so that it isn't lost to a single slow window.
+		baseline = latency < baseline ? latency : baseline + (latency - baseline) / 32;
+
+		if (latency > baseline * latencyTolerance && throughput <= lastThroughput) {
+			limit = Math.max(min, (int) (limit * decrease));
+			decreases++;
+		} else if (windowPeak >= limit && limit < max) {
+			limit++;
+			increases++;
+		}
+
+		windowStart = now;
+		windowCompleted = 0;
+		windowBytes = 0;
+		windowLatency = 0;
+		windowPeak = running;
+	}
+
+	public boolean adaptive() {
+		return adaptive;
+	}
+
+	/**
+	 * @return The most jobs that'll ever be let through at once.
+	 */
+	public int max() {
+		return max;
+	}
+
+	public int limit() {
+		return limit;
+	}
+
+	/**
+	 * @return Bytes per second read in the last window.
+	 */
+	public long throughput() {
+		return throughput;
+	}
+
+	/**
+	 * @return The mean time taken by each job in the last window, in nanoseconds.
+	 */
+	public long latency() {
+		return latency;
+	}
+
+	public int increases() {
+		return increases;
+	}
+
+	public int decreases() {
+		return decreases;
+	}
+
+	public void report(final Metrics metrics) {
+		lock.lock();
+		try {
+			metrics.put("adaptive", adaptive);
+			metrics.put("min", min);
+			metrics.put("max", max);
+			metrics.put("limit", limit);
+			metrics.put("increases", increases);
+			metrics.put("decreases", decreases);
+			metrics.put("waits", waits);
+			metrics.put("waitNanos", waitNanos);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		if (adaptive) {
+			return "between " + min + " and " + max + " jobs";
+		}
+		return limit + " jobs";
+	}
+
+	public static final class Converter implements CommandLine.ITypeConverter<JobLimiter> {
+		@Override
+		public JobLimiter convert(final String value) {
+			try {
+				return parse(value);
+			} catch (NumberFormatException nfe) {
+				throw new CommandLine.TypeConversionException("Invalid jobs '" + value + "'");
+			} catch (IllegalArgumentException iae) {
+				throw new CommandLine.TypeConversionException(iae.getMessage());
+			}
+		}
+	}
+}
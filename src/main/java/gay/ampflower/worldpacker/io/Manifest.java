@@ -0,0 +1,245 @@
+package gay.ampflower.worldpacker.io;
+
+import gay.ampflower.worldpacker.Data;
+import gay.ampflower.worldpacker.EntryPath;
+import gay.ampflower.worldpacker.HashKey;
+import gay.ampflower.worldpacker.Holder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Every path of a run and the hash of its contents, sorted by hash then path, so that two of them
+ * can be merge-joined in a single pass.
+ * <p>
+ * The manifest is a flat, big endian file:
+ * <pre>
+ * int    magic, "WPMF"
+ * int    version
+ * byte   hash algorithm, as {@link HashAlgorithm#id}
+ * int    record count
+ * record {
+ *   byte[] key, 32 bytes
+ *   long   size
+ *   short  path length
+ *   byte[] path, UTF-8, relative to the input
+ * }
+ * </pre>
+ * An incremental archive carries an index at {@link #indexPath}, laid out much the same:
+ * <pre>
+ * int    magic, "WPIX"
+ * int    version
+ * byte   hash algorithm
+ * int    removed count
+ * removed {
+ *   short  path length
+ *   byte[] path
+ * }
+ * int    unchanged count
+ * unchanged {
+ *   byte[] key, 32 bytes
+ *   long   size
+ *   short  path length
+ *   byte[] path
+ * }
+ * </pre>
+ * Removed paths were in the base but are no longer anywhere. Unchanged paths have contents already in the base,
+ * though possibly under another path, and are to be restored from the base by hash.
+ * <p>
+ * Version 1 had no hash algorithm, always being SHA-256, and is otherwise the same.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+public final class Manifest {
+	private static final int magic = 0x57504D46;
+	private static final int indexMagic = 0x57504958;
+	private static final int version = 2;
+
+	/**
+	 * Where the index goes in an incremental archive.
+	 */
+	public static final Path indexPath = Path.of(".world-packer", "index");
+
+	private Manifest() {
+	}
+
+	/**
+	 * Writes out every path in the map, sorted by hash then path.
+	 *
+	 * @param algorithm The algorithm the map is keyed by.
+	 */
+	public static void write(final Path file, final HashAlgorithm algorithm, final Map<HashKey, Holder> map) throws IOException {
+		try (final var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+			output.writeInt(magic);
+			output.writeInt(version);
+			output.writeByte(algorithm.id);
+			output.writeInt(map.values().stream().mapToInt(holder -> holder.paths().size()).sum());
+
+			final var itr = map.entrySet().stream().sorted(Map.Entry.comparingByKey()).iterator();
+			while (itr.hasNext()) {
+				final var e = itr.next();
+				for (final var path : e.getValue().paths().stream().sorted().toList()) {
+					writeRecord(output, new Record(e.getKey(), e.getValue().size(), path));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Merge-joins the map against the base manifest.
+	 *
+	 * @param algorithm The algorithm the map is keyed by, which the base must've been made with too.
+	 * @return What's in the map that isn't in the base, and the index to go along with it.
+	 */
+	public static Diff diff(final Path base, final HashAlgorithm algorithm, final Map<HashKey, Holder> map) throws IOException {
+		final var current = map.entrySet().stream().sorted(Map.Entry.comparingByKey()).toList();
+		final var paths = new HashSet<EntryPath>();
+		for (final var holder : map.values()) {
+			paths.addAll(holder.paths());
+		}
+
+		final var changed = new ArrayList<Holder>();
+		final var unchanged = new ArrayList<Record>();
+		final var removed = new ArrayList<EntryPath>();
+
+		try (final var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(base)))) {
+			final int baseVersion;
+			if (input.readInt() != magic || (baseVersion = input.readInt()) < 1 || baseVersion > version) {
+				throw new IOException(base + " isn't a manifest this understands");
+			}
+
+			final var baseAlgorithm = baseVersion == 1 ? HashAlgorithm.sha256 : HashAlgorithm.byId(input.readUnsignedByte());
+			if (baseAlgorithm == null) {
+				throw new IOException(base + " was hashed with an algorithm this doesn't know of");
+			}
+			if (baseAlgorithm != algorithm) {
+				throw new IOException(base + " was hashed with " + baseAlgorithm + ", and can only be compared against a run with `--hash " + baseAlgorithm + "`");
+			}
+
+			int remaining = input.readInt();
+			Record record = remaining-- > 0 ? readRecord(input) : null;
+
+			for (final var e : current) {
+				final var hash = e.getKey();
+				final var holder = e.getValue();
+
+				// Anything in the base before this hash isn't here any more, unless it was moved.
+				while (record != null && record.hash().compareTo(hash) < 0) {
+					if (!paths.contains(record.path())) {
+						removed.add(record.path());
+					}
+					record = remaining-- > 0 ? readRecord(input) : null;
+				}
+
+				if (record == null || record.hash().compareTo(hash) > 0) {
+					changed.add(holder);
+					continue;
+				}
+
+				while (record != null && record.hash().equals(hash)) {
+					if (!paths.contains(record.path())) {
+						removed.add(record.path());
+					}
+					record = remaining-- > 0 ? readRecord(input) : null;
+				}
+				for (final var path : holder.paths().stream().sorted().toList()) {
+					unchanged.add(new Record(hash, holder.size(), path));
+				}
+			}
+
+			for (; record != null; record = remaining-- > 0 ? readRecord(input) : null) {
+				if (!paths.contains(record.path())) {
+					removed.add(record.path());
+				}
+			}
+		} catch (EOFException eof) {
+			throw new IOException(base + " is truncated");
+		}
+
+		removed.sort(null);
+		return new Diff(algorithm, changed, unchanged, removed);
+	}
+
+	private static void writeRecord(final DataOutputStream output, final Record record) throws IOException {
+		output.write(record.hash().hash());
+		output.writeLong(record.size());
+		writePath(output, record.path());
+	}
+
+	private static Record readRecord(final DataInputStream input) throws IOException {
+		final var hash = new byte[32];
+		input.readFully(hash);
+		final long size = input.readLong();
+		return new Record(new HashKey(hash), size, readPath(input));
+	}
+
+	private static void writePath(final DataOutputStream output, final EntryPath path) throws IOException {
+		final var name = path.encoded();
+		if (name.length > 0xFFFF) {
+			throw new IOException("Path too long for a manifest: " + path);
+		}
+		output.writeShort(name.length);
+		output.write(name);
+	}
+
+	private static EntryPath readPath(final DataInputStream input) throws IOException {
+		final var name = new byte[input.readUnsignedShort()];
+		input.readFully(name);
+		return EntryPath.of(new String(name, StandardCharsets.UTF_8));
+	}
+
+	public record Record(HashKey hash, long size, EntryPath path) {
+	}
+
+	/**
+	 * @param algorithm What every hash is keyed by.
+	 * @param changed   Holders with contents not in the base, which need to be written.
+	 * @param unchanged Paths with contents already in the base.
+	 * @param removed   Paths in the base that are no longer here.
+	 */
+	public record Diff(HashAlgorithm algorithm, List<Holder> changed, List<Record> unchanged, List<EntryPath> removed) {
+		/**
+		 * @return The index as a holder to be written alongside the changed holders.
+		 */
+		public Holder index() throws IOException {
+			final var bytes = new ByteArrayOutputStream();
+			try (final var output = new DataOutputStream(bytes)) {
+				output.writeInt(indexMagic);
+				output.writeInt(version);
+				output.writeByte(algorithm.id);
+
+				output.writeInt(removed.size());
+				for (final var path : removed) {
+					writePath(output, path);
+				}
+
+				output.writeInt(unchanged.size());
+				for (final var record : unchanged) {
+					writeRecord(output, record);
+				}
+			}
+
+			final var array = bytes.toByteArray();
+			final var crc = new CRC32();
+			crc.update(array);
+
+			final var holder = new Holder(crc.getValue(), array.length, Data.storeBytes(indexPath, array));
+			holder.paths().add(EntryPath.of(indexPath));
+			return holder;
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package gay.ampflower.worldpacker.io;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * One permutation MinHash sketch of the start of a file, cheap enough to take while hashing,
+ * for telling which files are alike without comparing them.
+ * <p>
+ * Every 8 byte shingle is hashed, with the top bits of its hash picking a bin, and each bin keeping
+ * the least hash that landed in it. Two files share a bin's value about as often as they share shingles.
+ * <p>
+ * Only the first {@link #sampleSize} bytes are sketched, which bounds what it costs per file;
+ * shingles straddling two updates are missed.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+public final class MinHash {
+	public static final int bins = 16;
+	public static final int sampleSize = 32 * 1024;
+
+	private static final int binShift = Long.SIZE - Integer.numberOfTrailingZeros(bins);
+	private static final int shingle = Long.BYTES;
+	private static final long empty = -1L;
+
+	private final long[] mins = new long[bins];
+	private int sampled;
+
+	public MinHash() {
+		Arrays.fill(mins, empty);
+	}
+
+	/**
+	 * Sketches what's remaining in the buffer, up to the sample size, leaving its position untouched.
+	 */
+	public void update(final ByteBuffer buffer) {
+		final int length = Math.min(buffer.remaining(), sampleSize - sampled);
+		final int end = buffer.position() + length - shingle;
+
+		for (int i = buffer.position(); i <= end; i++) {
+			long hash = buffer.getLong(i) * 0x9E3779B97F4A7C15L;
+			hash ^= hash >>> 29;
+			hash *= 0xBF58476D1CE4E5B9L;
+
+			final int bin = (int) (hash >>> binShift);
+			if (Long.compareUnsigned(hash, mins[bin]) < 0) {
+				mins[bin] = hash;
+			}
+		}
+		sampled += length;
+	}
+
+	/**
+	 * @return Whether enough was sketched to say anything, else every empty sketch would look alike.
+	 */
+	public boolean present() {
+		return sampled >= shingle;
+	}
+
+	/**
+	 * @return The least hash of the given bin, or all bits set if nothing landed in it.
+	 */
+	public long bin(final int bin) {
+		return mins[bin];
+	}
+}
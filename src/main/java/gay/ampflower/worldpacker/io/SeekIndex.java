@@ -0,0 +1,212 @@
+package gay.ampflower.worldpacker.io;
+
+import gay.ampflower.worldpacker.Archive;
+import gay.ampflower.worldpacker.Data;
+import gay.ampflower.worldpacker.EntryPath;
+import gay.ampflower.worldpacker.Holder;
+import gay.ampflower.worldpacker.archiver.Archiver;
+import gay.ampflower.worldpacker.compressor.Compressor;
+import gay.ampflower.worldpacker.compressor.FramedOutputStream;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sidecar index of where every path is within an archive, for reading a few files back out without
+ * going through the whole archive.
+ * <p>
+ * Every path maps to the entries of its holder within the archive as written, before any compression,
+ * which starts at an entry and can be read back by the archive's own stream. When compressed, the archive's cut into
+ * frames that each decode on their own, as by {@link FramedOutputStream}, with a new frame started
+ * between holders once the current one is at least as large as the frame size given. The index lists where
+ * every frame starts both before and after compression, so that reading a path only decodes from the frame it's in.
+ * <p>
+ * Laid out as described in {@code SPECIFICATION.md}.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+public final class SeekIndex implements Archiver.Listener {
+	private static final int magic = 0x57505349;
+	private static final int version = 1;
+	private static final int bufferSize = 128 * 1024;
+
+	private final CountingOutputStream counting;
+	private final FramedOutputStream framed;
+	private final long frameSize;
+
+	private final List<Entry> entries = new ArrayList<>();
+	// Holders only pointing at a payload already written in dedup_zip share its entries.
+	private final Map<Data, Range> ranges = new IdentityHashMap<>();
+	private long position;
+
+	/**
+	 * @param counting  Counts everything the archive wrote, before any compression.
+	 * @param framed    What compresses the archive, or null if it isn't.
+	 * @param frameSize How large a frame gets before it's cut at the next holder.
+	 */
+	public SeekIndex(final CountingOutputStream counting, final FramedOutputStream framed, final long frameSize) {
+		this.counting = counting;
+		this.framed = framed;
+		this.frameSize = frameSize;
+	}
+
+	@Override
+	public void written(final OutputStream output, final Holder holder) throws IOException {
+		// Archives may hold onto a little of the holder, which has to be counted.
+		output.flush();
+		final long end = counting.getByteCount();
+
+		final var range = end > position ? new Range(position, end - position) : ranges.get(holder.data());
+		position = end;
+		if (range == null) {
+			return;
+		}
+		ranges.put(holder.data(), range);
+		for (final var path : holder.paths()) {
+			entries.add(new Entry(path, range));
+		}
+
+		if (framed != null && framed.pending() >= frameSize) {
+			framed.cut();
+		}
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Writes the index out, once the archive is done.
+	 */
+	public void write(final Path path, final Archive archive, final Compressor compressor) throws IOException {
+		try (final var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+			output.writeInt(magic);
+			output.writeInt(version);
+			output.writeUTF(archive.name());
+			output.writeUTF(compressor == null ? "" : compressor.name());
+
+			final var frames = framed == null ? List.of(new FramedOutputStream.Frame(0L, 0L)) : framed.frames();
+			output.writeInt(frames.size());
+			for (final var frame : frames) {
+				output.writeLong(frame.uncompressed());
+				output.writeLong(frame.compressed());
+			}
+
+			output.writeInt(entries.size());
+			for (final var entry : entries) {
+				output.writeUTF(entry.path().toString());
+				output.writeLong(entry.range().offset());
+				output.writeLong(entry.range().length());
+			}
+		}
+	}
+
+	/**
+	 * @throws IOException If the index is malformed.
+	 */
+	public static Table read(final Path path) throws IOException {
+		try (final var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			if (input.readInt() != magic || input.readInt() != version) {
+				throw new IOException("Not an index this understands");
+			}
+
+			final Archive archive;
+			final Compressor compressor;
+			try {
+				archive = Archive.valueOf(input.readUTF());
+				final var name = input.readUTF();
+				compressor = name.isEmpty() ? null : Compressor.valueOf(name);
+			} catch (IllegalArgumentException unknown) {
+				throw new IOException("Index is for an unknown archive or compressor", unknown);
+			}
+
+			final int frameCount = input.readInt();
+			final var frames = new ArrayList<FramedOutputStream.Frame>(Math.max(0, Math.min(frameCount, 1 << 16)));
+			for (int i = 0; i < frameCount; i++) {
+				frames.add(new FramedOutputStream.Frame(input.readLong(), input.readLong()));
+			}
+			if (frames.isEmpty()) {
+				throw new IOException("Index has no frames");
+			}
+
+			final int entryCount = input.readInt();
+			final var entries = new HashMap<String, Range>();
+			for (int i = 0; i < entryCount; i++) {
+				entries.put(input.readUTF(), new Range(input.readLong(), input.readLong()));
+			}
+			return new Table(archive, compressor, frames, entries);
+		} catch (EOFException truncated) {
+			throw new IOException("Index is truncated", truncated);
+		}
+	}
+
+	/**
+	 * @param offset Where the holder's entries start within the archive, before any compression.
+	 */
+	public record Range(long offset, long length) {
+	}
+
+	// Named only once written out, rather than holding onto a string per path all along.
+	private record Entry(EntryPath path, Range range) {
+	}
+
+	/**
+	 * An index as read back.
+	 *
+	 * @param compressor What the archive was compressed with, or null if it wasn't.
+	 */
+	public record Table(Archive archive, Compressor compressor, List<FramedOutputStream.Frame> frames, Map<String, Range> entries) {
+		/**
+		 * @return The last frame starting at or before the given offset, which holds it.
+		 */
+		public FramedOutputStream.Frame frame(final long offset) {
+			int low = 0;
+			int high = frames.size() - 1;
+			while (low < high) {
+				final int middle = (low + high + 1) >>> 1;
+				if (frames.get(middle).uncompressed() <= offset) {
+					low = middle;
+				} else {
+					high = middle - 1;
+				}
+			}
+			return frames.get(low);
+		}
+
+		/**
+		 * Opens the archive at the given range, decoding from the start of the frame it's in.
+		 *
+		 * @return The range alone. Closing it leaves the archive open.
+		 */
+		public InputStream open(final FileChannel archive, final Range range) throws IOException {
+			final var frame = this.frame(range.offset());
+			archive.position(frame.compressed());
+
+			InputStream input = new BufferedInputStream(CloseShieldInputStream.wrap(Channels.newInputStream(archive)), bufferSize);
+			if (compressor != null) {
+				input = compressor.unwrap(input);
+			}
+			input.skipNBytes(range.offset() - frame.uncompressed());
+			return BoundedInputStream.builder().setInputStream(input).setMaxCount(range.length()).get();
+		}
+	}
+}
@@ -28,4 +28,11 @@ public abstract class StreamFactory<H> {
         reset.accept(digest);
         return digest;
     }
+
+    /**
+     * Hands a hasher back for reuse. It must not be touched after this.
+     */
+    protected void release(H hasher) {
+        freeHashers.push(hasher);
+    }
 }
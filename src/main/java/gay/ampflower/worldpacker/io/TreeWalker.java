@@ -0,0 +1,127 @@
+package gay.ampflower.worldpacker.io;
+
+import gay.ampflower.worldpacker.metrics.WalkEvent;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Walks a tree in parallel, listing every directory on its own virtual thread, and reading the attributes
+ * of every entry exactly once.
+ * <p>
+ * Entries are visited in no particular order, from whichever thread listed their directory, which may be
+ * blocked by the visitor to apply back pressure on the walk.
+ * <p>
+ * As with {@link Files#walk(Path, java.nio.file.FileVisitOption...)}, symbolic links aren't followed into
+ * directories. Links to anything else are visited with the attributes of what they point at.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+public final class TreeWalker {
+	private final Visitor visitor;
+	// Only limits how many directories are open at once; visiting happens after the directory's closed.
+	private final Semaphore listing;
+
+	// Directories yet to be listed, plus one for the walk itself.
+	private final AtomicInteger pending = new AtomicInteger(1);
+	private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+	private final LongAdder entries = new LongAdder();
+
+	private TreeWalker(final int jobs, final Visitor visitor) {
+		this.visitor = visitor;
+		this.listing = new Semaphore(jobs);
+	}
+
+	/**
+	 * Visits the root and everything under it, returning once everything has been visited.
+	 *
+	 * @param jobs The most directories to list at once.
+	 * @return The amount of entries visited, including the root.
+	 */
+	public static long walk(final Path root, final int jobs, final Visitor visitor) {
+		final var event = new WalkEvent();
+		event.begin();
+
+		final var walker = new TreeWalker(jobs, visitor);
+		walker.visit(root);
+		walker.arrive();
+		walker.done.join();
+
+		final long entries = walker.entries.sum();
+		event.end();
+		if (event.shouldCommit()) {
+			event.root = root.toString();
+			event.entries = entries;
+			event.commit();
+		}
+		return entries;
+	}
+
+	private void visit(final Path path) {
+		final BasicFileAttributes own;
+		final BasicFileAttributes attributes;
+		try {
+			own = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			attributes = own.isSymbolicLink() ? Files.readAttributes(path, BasicFileAttributes.class) : own;
+		} catch (IOException e) {
+			visitor.failed(path, e);
+			return;
+		}
+
+		entries.increment();
+		visitor.visit(path, attributes);
+
+		if (own.isDirectory()) {
+			pending.incrementAndGet();
+			Thread.startVirtualThread(() -> {
+				try {
+					list(path);
+				} finally {
+					arrive();
+				}
+			});
+		}
+	}
+
+	private void list(final Path directory) {
+		final var entries = new ArrayList<Path>();
+
+		listing.acquireUninterruptibly();
+		try (final var stream = Files.newDirectoryStream(directory)) {
+			stream.forEach(entries::add);
+		} catch (IOException e) {
+			visitor.failed(directory, e);
+		} finally {
+			listing.release();
+		}
+
+		for (final var entry : entries) {
+			visit(entry);
+		}
+	}
+
+	private void arrive() {
+		if (pending.decrementAndGet() == 0) {
+			done.complete(null);
+		}
+	}
+
+	public interface Visitor {
+		/**
+		 * @param attributes The entry's attributes, being of the target if the entry is a link.
+		 */
+		void visit(Path path, BasicFileAttributes attributes);
+
+		void failed(Path path, IOException exception);
+	}
+}
@@ -0,0 +1,176 @@
+package gay.ampflower.worldpacker.io;
+
+import gay.ampflower.worldpacker.Data;
+import gay.ampflower.worldpacker.EntryPath;
+import gay.ampflower.worldpacker.Holder;
+import gay.ampflower.worldpacker.Order;
+import gay.ampflower.worldpacker.Utils;
+import gay.ampflower.worldpacker.metrics.Metrics;
+import gay.ampflower.worldpacker.metrics.QueueStallEvent;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded hand-off between the readers and the writer.
+ * <p>
+ * Readers put each file in as soon as it's digested, blocking once the writer falls behind.
+ * The writer takes them out a window at a time, each window sorted on its own; the order
+ * across windows is the order files finished reading in.
+ * <p>
+ * Paths within a window that share their {@link gay.ampflower.worldpacker.Data} are merged into one holder,
+ * whatever holder they were put in with. Contents whose duplicates straddle windows will be handed out
+ * once per window, each time carrying only the paths seen in that window, but always sharing the
+ * original {@link gay.ampflower.worldpacker.Data}.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+public final class WindowedQueue implements Iterator<Holder> {
+	private static final Logger logger = Utils.logger();
+
+	private static final Found END = new Found(null, null);
+
+	private final BlockingQueue<Found> queue;
+	private final int window;
+	private final Order order;
+
+	// Either side waiting on the other, for metrics.
+	private final LongAdder readerStallNanos = new LongAdder();
+	private final LongAdder writerStallNanos = new LongAdder();
+
+	private Iterator<Holder> current = Collections.emptyIterator();
+	private boolean finished;
+
+	public WindowedQueue(final int window, final Order order) {
+		if (window <= 0) {
+			throw new IllegalArgumentException("Window must be positive: " + window);
+		}
+		this.queue = new ArrayBlockingQueue<>(window);
+		this.window = window;
+		this.order = order;
+	}
+
+	/**
+	 * Hands a digested file off to the writer, blocking while the queue is full.
+	 */
+	public void put(final Holder holder, final EntryPath path) {
+		put(new Found(holder, path));
+	}
+
+	/**
+	 * Marks that there is nothing more to come.
+	 */
+	public void finish() {
+		put(END);
+	}
+
+	private void put(final Found found) {
+		if (queue.offer(found)) {
+			return;
+		}
+
+		final var event = new QueueStallEvent();
+		event.begin();
+		final long start = System.nanoTime();
+
+		while (true) {
+			try {
+				queue.put(found);
+				break;
+			} catch (InterruptedException i) {
+				logger.warn("Why did you interrupt me?", i);
+			}
+		}
+
+		readerStallNanos.add(System.nanoTime() - start);
+		event.commit();
+	}
+
+	private Found take() {
+		final var polled = queue.poll();
+		if (polled != null) {
+			return polled;
+		}
+
+		final var event = new QueueStallEvent();
+		event.begin();
+		event.writer = true;
+		final long start = System.nanoTime();
+
+		while (true) {
+			try {
+				final var found = queue.take();
+				writerStallNanos.add(System.nanoTime() - start);
+				event.commit();
+				return found;
+			} catch (InterruptedException i) {
+				logger.warn("Why did you interrupt me?", i);
+			}
+		}
+	}
+
+	public void report(final Metrics metrics) {
+		metrics.put("window", window);
+		metrics.put("readerStallNanos", readerStallNanos.sum());
+		metrics.put("writerStallNanos", writerStallNanos.sum());
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (!current.hasNext()) {
+			if (finished) {
+				return false;
+			}
+			current = nextWindow();
+		}
+		return true;
+	}
+
+	@Override
+	public Holder next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return current.next();
+	}
+
+	private Iterator<Holder> nextWindow() {
+		final var grouped = new IdentityHashMap<Data, Grouped>();
+
+		for (int i = 0; i < window; i++) {
+			final var found = take();
+			if (found == END) {
+				finished = true;
+				break;
+			}
+			grouped.computeIfAbsent(found.holder().data(), $ -> new Grouped(found.holder())).paths().add(found.path());
+		}
+
+		final var holders = new ArrayList<Holder>(grouped.size());
+		for (final var group : grouped.values()) {
+			final var holder = group.holder();
+			holders.add(new Holder(holder.crc32(), holder.size(), holder.data(), new TreeSet<>(group.paths()), holder.sketch()));
+		}
+
+		return order.sort(holders).iterator();
+	}
+
+	private record Found(Holder holder, EntryPath path) {
+	}
+
+	private record Grouped(Holder holder, List<EntryPath> paths) {
+		Grouped(final Holder holder) {
+			this(holder, new ArrayList<>(1));
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package gay.ampflower.worldpacker.io;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.Checksum;
+
+/**
+ * Streaming XXH64 with a seed of 0, reading straight out of heap, direct and mapped buffers alike.
+ * <p>
+ * Not cryptographic; anyone who can pick the input can make it collide.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+public final class Xxh64 implements Checksum {
+	private static final long P1 = 0x9E3779B185EBCA87L;
+	private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long P3 = 0x165667B19E3779F9L;
+	private static final long P4 = 0x85EBCA77C2B2AE63L;
+	private static final long P5 = 0x27D4EB2F165667C5L;
+
+	private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+	private long v1, v2, v3, v4;
+	private long total;
+
+	// Bytes left over from the last update that didn't fill a stripe.
+	private final ByteBuffer pending = ByteBuffer.allocate(32);
+
+	public Xxh64() {
+		reset();
+	}
+
+	@Override
+	public void update(final int b) {
+		pending.put((byte) b);
+		total++;
+		if (!pending.hasRemaining()) {
+			stripe(pending, 0);
+			pending.clear();
+		}
+	}
+
+	@Override
+	public void update(final byte[] b, final int off, final int len) {
+		update(ByteBuffer.wrap(b, off, len));
+	}
+
+	/**
+	 * Hashes everything remaining in the buffer, leaving its position at its limit.
+	 */
+	@Override
+	public void update(final ByteBuffer buffer) {
+		int position = buffer.position();
+		final int limit = buffer.limit();
+		total += limit - position;
+
+		if (pending.position() > 0) {
+			final int fill = Math.min(pending.remaining(), limit - position);
+			pending.put(pending.position(), buffer, position, fill).position(pending.position() + fill);
+			position += fill;
+			if (pending.hasRemaining()) {
+				buffer.position(position);
+				return;
+			}
+			stripe(pending, 0);
+			pending.clear();
+		}
+
+		// Kept in locals so that the loop runs out of registers.
+		long v1 = this.v1, v2 = this.v2, v3 = this.v3, v4 = this.v4;
+		for (; position <= limit - 32; position += 32) {
+			v1 = round(v1, (long) LONGS.get(buffer, position));
+			v2 = round(v2, (long) LONGS.get(buffer, position + 8));
+			v3 = round(v3, (long) LONGS.get(buffer, position + 16));
+			v4 = round(v4, (long) LONGS.get(buffer, position + 24));
+		}
+		this.v1 = v1;
+		this.v2 = v2;
+		this.v3 = v3;
+		this.v4 = v4;
+
+		pending.put(0, buffer, position, limit - position).position(limit - position);
+		buffer.position(limit);
+	}
+
+	private void stripe(final ByteBuffer buffer, final int position) {
+		v1 = round(v1, (long) LONGS.get(buffer, position));
+		v2 = round(v2, (long) LONGS.get(buffer, position + 8));
+		v3 = round(v3, (long) LONGS.get(buffer, position + 16));
+		v4 = round(v4, (long) LONGS.get(buffer, position + 24));
+	}
+
+	/**
+	 * @return The hash of everything so far, without affecting further updates.
+	 */
+	@Override
+	public long getValue() {
+		long h;
+		if (total >= 32) {
+			h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+			h = merge(h, v1);
+			h = merge(h, v2);
+			h = merge(h, v3);
+			h = merge(h, v4);
+		} else {
+			h = P5;
+		}
+		h += total;
+
+		final int length = pending.position();
+		int i = 0;
+		for (; i <= length - 8; i += 8) {
+			h ^= round(0, (long) LONGS.get(pending, i));
+			h = Long.rotateLeft(h, 27) * P1 + P4;
+		}
+		if (i <= length - 4) {
+			h ^= Integer.toUnsignedLong((int) INTS.get(pending, i)) * P1;
+			h = Long.rotateLeft(h, 23) * P2 + P3;
+			i += 4;
+		}
+		for (; i < length; i++) {
+			h ^= (pending.get(i) & 0xFFL) * P5;
+			h = Long.rotateLeft(h, 11) * P1;
+		}
+
+		h ^= h >>> 33;
+		h *= P2;
+		h ^= h >>> 29;
+		h *= P3;
+		h ^= h >>> 32;
+		return h;
+	}
+
+	@Override
+	public void reset() {
+		v1 = P1 + P2;
+		v2 = P2;
+		v3 = 0;
+		v4 = -P1;
+		total = 0;
+		pending.clear();
+	}
+
+	private static long round(long acc, final long input) {
+		acc += input * P2;
+		acc = Long.rotateLeft(acc, 31);
+		return acc * P1;
+	}
+
+	private static long merge(final long acc, final long v) {
+		return (acc ^ round(0, v)) * P1 + P4;
+	}
+}
@@ -1,8 +1,194 @@
 package gay.ampflower.worldpacker.mcregion;// Created 2022-11-09T23:06:52
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
+ * Reader for McRegion and Anvil region files.
+ * <p>
+ * A region starts with an 8 KiB header: 1024 big endian locations, each a 3 byte sector offset and
+ * a 1 byte sector count, followed by 1024 big endian timestamps. Each present chunk then starts at its
+ * sector with a 4 byte length and a 1 byte compression type, the length covering the type and payload.
+ * Whatever is left over in the chunk's last sector, and any sectors no chunk points at, is padding.
+ *
  * @author Ampflower
+ * @see <a href="https://minecraft.wiki/w/Region_file_format">Region file format</a>
  * @since ${version}
  **/
-public class RegionReader {
+public final class RegionReader {
+	public static final int sectorSize = 4096;
+	public static final int chunkCount = 1024;
+	public static final int headerSize = 2 * sectorSize;
+
+	// The sector count is a single byte.
+	private static final int maxSectors = 0xFF;
+	// Set on the compression type when the payload is stored in a .mcc beside the region.
+	private static final int externalFlag = 0x80;
+
+	private final ByteBuffer region;
+
+	/**
+	 * @param region The entire region file, which will be read from as is.
+	 * @throws IOException If the header or any chunk doesn't fit in the file.
+	 */
+	public RegionReader(final ByteBuffer region) throws IOException {
+		this.region = region.duplicate().order(ByteOrder.BIG_ENDIAN);
+
+		if (this.region.remaining() < headerSize) {
+			throw new IOException("Region of " + this.region.remaining() + " bytes is too small for its header");
+		}
+
+		for (int i = 0; i < chunkCount; i++) {
+			// Validates every chunk up front, so that nothing later has to.
+			chunk(i);
+		}
+	}
+
+	/**
+	 * @return Whether the path is named as a region file would be.
+	 */
+	public static boolean isRegion(final Path path) {
+		final var name = path.getFileName().toString();
+		return name.endsWith(".mca") || name.endsWith(".mcr");
+	}
+
+	public int sectorOffset(final int index) {
+		return location(index) >>> 8;
+	}
+
+	public int sectorCount(final int index) {
+		return location(index) & 0xFF;
+	}
+
+	public int timestamp(final int index) {
+		return region.getInt(region.position() + sectorSize + index * 4);
+	}
+
+	private int location(final int index) {
+		return region.getInt(region.position() + index * 4);
+	}
+
+	/**
+	 * @return The chunk at the given index, or null if there isn't one.
+	 * @throws IOException If the chunk doesn't fit in its sectors or the file.
+	 */
+	public Chunk chunk(final int index) throws IOException {
+		final int offset = sectorOffset(index);
+		final int sectors = sectorCount(index);
+
+		if (offset == 0 && sectors == 0) {
+			return null;
+		}
+		if (offset < headerSize / sectorSize || sectors == 0) {
+			throw new IOException("Chunk " + index + " has an invalid location of " + sectors + " sectors at " + offset);
+		}
+
+		final long start = (long) offset * sectorSize;
+		if (start + 5 > region.remaining()) {
+			throw new IOException("Chunk " + index + " at sector " + offset + " is past the end of the region");
+		}
+
+		final int length = region.getInt(region.position() + (int) start);
+		if (length <= 0 || 4L + length > (long) sectors * sectorSize || start + 4 + length > region.remaining()) {
+			throw new IOException("Chunk " + index + " has an invalid length of " + length + " in " + sectors + " sectors");
+		}
+
+		final int type = region.get(region.position() + (int) start + 4) & 0xFF;
+		final var payload = region.slice(region.position() + (int) start + 5, length - 1);
+
+		return new Chunk(index, timestamp(index), type, payload);
+	}
+
+	/**
+	 * @return Every present chunk, in index order.
+	 */
+	public List<Chunk> chunks() throws IOException {
+		final var chunks = new ArrayList<Chunk>();
+		for (int i = 0; i < chunkCount; i++) {
+			final var chunk = chunk(i);
+			if (chunk != null) {
+				chunks.add(chunk);
+			}
+		}
+		return chunks;
+	}
+
+	/**
+	 * Lays the region out again with every chunk in index order, one straight after the other,
+	 * and every byte of padding zeroed.
+	 * <p>
+	 * The timestamps and chunks themselves are kept as is, so the game will load the same world from it.
+	 *
+	 * @throws IOException If a chunk needs more sectors than a location can hold.
+	 */
+	public byte[] repack() throws IOException {
+		return pack(chunks());
+	}
+
+	/**
+	 * Lays out a region from scratch, with every chunk one straight after the other in the order given.
+	 *
+	 * @throws IOException If a chunk needs more sectors than a location can hold.
+	 */
+	public static byte[] pack(final List<Chunk> chunks) throws IOException {
+		long size = headerSize;
+		for (final var chunk : chunks) {
+			size += (long) chunk.sectors() * sectorSize;
+		}
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Repacked region of " + size + " bytes would be too large");
+		}
+
+		final var output = ByteBuffer.allocate((int) size);
+
+		int sector = headerSize / sectorSize;
+		for (final var chunk : chunks) {
+			final int sectors = chunk.sectors();
+			if (sectors > maxSectors) {
+				throw new IOException("Chunk " + chunk.index() + " needs " + sectors + " sectors");
+			}
+
+			output.putInt(chunk.index() * 4, (sector << 8) | sectors);
+			output.putInt(sectorSize + chunk.index() * 4, chunk.timestamp());
+
+			output.position(sector * sectorSize);
+			output.putInt(chunk.length());
+			output.put((byte) chunk.type());
+			output.put(chunk.payload().duplicate());
+
+			sector += sectors;
+		}
+
+		return output.array();
+	}
+
+	/**
+	 * @param index     The chunk's index in the header, being {@code x + z * 32} within the region.
+	 * @param timestamp The last time the chunk was saved, in seconds since the epoch.
+	 * @param type      The compression type, with {@code 0x80} set if the payload is stored externally.
+	 * @param payload   The compressed chunk, not including its length or type.
+	 */
+	public record Chunk(int index, int timestamp, int type, ByteBuffer payload) {
+		public boolean external() {
+			return (type & externalFlag) != 0;
+		}
+
+		/**
+		 * @return The chunk as stored, being its type and payload.
+		 */
+		public int length() {
+			return payload.remaining() + 1;
+		}
+
+		/**
+		 * @return The least amount of sectors the chunk can be stored in.
+		 */
+		public int sectors() {
+			return (4 + length() + sectorSize - 1) / sectorSize;
+		}
+	}
 }
@@ -0,0 +1,359 @@
+package gay.ampflower.worldpacker.mcregion;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Reversibly turns a region into a {@code .wpr}, with every zlib chunk stored inflated as raw NBT,
+ * so that whatever compresses the archive afterwards can find what chunks have in common.
+ * <p>
+ * A chunk is only inflated if deflating it again gives back the exact same bytes, at the level its zlib
+ * header hints at; anything else, including chunks compressed by something other than zlib, is kept as is.
+ * Every byte the chunks don't cover, padding included, is carried along, so that restoring gives back
+ * the region byte for byte. The layout is described in {@code SPECIFICATION.md}.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+public final class RegionTransform {
+	/**
+	 * Appended to the name of every region stored transformed.
+	 */
+	public static final String extension = ".wpr";
+
+	private static final int magic = 0x57505254;
+	private static final int version = 1;
+
+	private static final int zlib = 2;
+
+	private static final byte stored = 0;
+	private static final byte inflated = 1;
+
+	private RegionTransform() {
+	}
+
+	/**
+	 * Inflates every chunk it can, in parallel.
+	 *
+	 * @param region The entire region file.
+	 * @throws IOException If the region can't be read, or its chunks overlap, in which case it should be kept as is.
+	 */
+	public static byte[] transform(final ByteBuffer region) throws IOException {
+		final var reader = new RegionReader(region);
+		final var chunks = reader.chunks();
+		final var extents = extents(reader, chunks);
+
+		final var transformed = chunks.parallelStream().map(RegionTransform::transform).toList();
+
+		final var bytes = new ByteArrayOutputStream(region.remaining() * 2);
+		try (final var output = new DataOutputStream(bytes)) {
+			output.writeInt(magic);
+			output.writeInt(version);
+			output.writeInt(region.remaining());
+
+			final var header = new byte[RegionReader.headerSize];
+			region.get(region.position(), header);
+			output.write(header);
+
+			output.writeInt(transformed.size());
+			for (final var chunk : transformed) {
+				output.writeShort(chunk.index());
+				output.writeByte(chunk.type());
+				output.writeByte(chunk.form());
+				if (chunk.form() == inflated) {
+					output.writeByte(chunk.level());
+					output.writeInt(chunk.crc32());
+				}
+				output.writeInt(chunk.data().length);
+				output.write(chunk.data());
+			}
+
+			// Everything between the chunks, in the order it's found in.
+			final var residue = new ByteArrayOutputStream();
+			int position = RegionReader.headerSize;
+			for (final var extent : extents) {
+				residue.write(slice(region, position, extent.start() - position));
+				position = extent.end();
+			}
+			residue.write(slice(region, position, region.remaining() - position));
+
+			output.writeInt(residue.size());
+			residue.writeTo(output);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Deflates every inflated chunk again, putting the region back together.
+	 *
+	 * @return The region, which is only byte for byte the original if every chunk deflated back to what it was.
+	 * Otherwise, the chunks are laid out again as with {@link RegionReader#repack()}, which the game still reads
+	 * the same, but any padding is lost.
+	 * @throws IOException If the transformed region is malformed.
+	 */
+	public static Restored restore(final ByteBuffer transformed) throws IOException {
+		final var input = transformed.duplicate().order(ByteOrder.BIG_ENDIAN);
+
+		try {
+			if (input.getInt() != magic || input.getInt() != version) {
+				throw new IOException("Not a transformed region this understands");
+			}
+
+			final int size = input.getInt();
+			final var header = input.slice(input.position(), RegionReader.headerSize);
+			input.position(input.position() + RegionReader.headerSize);
+
+			final int count = input.getInt();
+			final var transformedChunks = new ArrayList<Transformed>(count);
+			for (int i = 0; i < count; i++) {
+				final int index = input.getShort();
+				final int type = input.get() & 0xFF;
+				final byte form = input.get();
+				int level = 0;
+				int crc32 = 0;
+				if (form == inflated) {
+					level = input.get();
+					crc32 = input.getInt();
+				} else if (form != stored) {
+					throw new IOException("Chunk " + index + " has an unknown form of " + form);
+				}
+				final var data = new byte[input.getInt()];
+				input.get(data);
+				transformedChunks.add(new Transformed(index, type, form, level, crc32, data));
+			}
+
+			final int residueLength = input.getInt();
+			final var residue = input.slice(input.position(), residueLength);
+
+			final var chunks = transformedChunks.parallelStream().map(chunk -> restore(chunk, header)).toList();
+			final boolean exact = chunks.stream().allMatch(Chunk::exact);
+
+			if (!exact) {
+				return new Restored(RegionReader.pack(chunks.stream().map(Chunk::chunk).toList()), false);
+			}
+
+			final var region = ByteBuffer.allocate(size);
+			region.put(0, header, 0, RegionReader.headerSize);
+
+			final var placed = chunks.stream().map(Chunk::chunk)
+					.sorted(Comparator.comparingInt(chunk -> location(header, chunk.index()) >>> 8))
+					.toList();
+
+			int position = RegionReader.headerSize;
+			for (final var chunk : placed) {
+				final int start = (location(header, chunk.index()) >>> 8) * RegionReader.sectorSize;
+				region.put(position, residue, residue.position(), start - position);
+				residue.position(residue.position() + start - position);
+
+				region.putInt(start, chunk.length());
+				region.put(start + 4, (byte) chunk.type());
+				region.put(start + 5, chunk.payload(), 0, chunk.payload().remaining());
+				position = start + 4 + chunk.length();
+			}
+			region.put(position, residue, residue.position(), size - position);
+			residue.position(residue.position() + size - position);
+
+			if (residue.hasRemaining()) {
+				throw new IOException(residue.remaining() + " bytes of padding left over");
+			}
+			return new Restored(region.array(), true);
+		} catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException truncated) {
+			throw new IOException("Transformed region is truncated or malformed", truncated);
+		}
+	}
+
+	/**
+	 * @return Where each chunk sits in the file, in file order.
+	 * @throws IOException If any two chunks overlap, as then there's no one place to put back what's between them.
+	 */
+	private static List<Extent> extents(final RegionReader reader, final List<RegionReader.Chunk> chunks) throws IOException {
+		final var extents = new ArrayList<Extent>(chunks.size());
+		for (final var chunk : chunks) {
+			final int start = reader.sectorOffset(chunk.index()) * RegionReader.sectorSize;
+			extents.add(new Extent(start, start + 4 + chunk.length()));
+		}
+		extents.sort(Comparator.comparingInt(Extent::start));
+
+		int end = RegionReader.headerSize;
+		for (final var extent : extents) {
+			if (extent.start() < end) {
+				throw new IOException("Chunks overlap at " + extent.start());
+			}
+			end = extent.end();
+		}
+		return extents;
+	}
+
+	private static Transformed transform(final RegionReader.Chunk chunk) {
+		final var payload = chunk.payload();
+		final var kept = new Transformed(chunk.index(), chunk.type(), stored, 0, 0, slice(payload, 0, payload.remaining()));
+
+		if (chunk.type() != zlib || payload.remaining() < 2) {
+			return kept;
+		}
+
+		final byte[] raw;
+		try {
+			raw = inflate(payload);
+		} catch (DataFormatException malformed) {
+			return kept;
+		}
+		if (raw == null) {
+			return kept;
+		}
+
+		for (final int level : levels(payload.get(payload.position() + 1))) {
+			if (deflatesTo(raw, level, payload)) {
+				final var crc = new CRC32();
+				crc.update(payload.duplicate());
+				return new Transformed(chunk.index(), chunk.type(), inflated, level, (int) crc.getValue(), raw);
+			}
+		}
+		return kept;
+	}
+
+	private static Chunk restore(final Transformed chunk, final ByteBuffer header) {
+		final int timestamp = header.getInt(RegionReader.sectorSize + chunk.index() * 4);
+
+		if (chunk.form() == stored) {
+			return new Chunk(new RegionReader.Chunk(chunk.index(), timestamp, chunk.type(), ByteBuffer.wrap(chunk.data())), true);
+		}
+
+		final var payload = deflate(chunk.data(), chunk.level());
+		final var crc = new CRC32();
+		crc.update(payload);
+		return new Chunk(
+				new RegionReader.Chunk(chunk.index(), timestamp, chunk.type(), ByteBuffer.wrap(payload)),
+				(int) crc.getValue() == chunk.crc32()
+		);
+	}
+
+	/**
+	 * @return The inflated payload, or null if anything trails the zlib stream.
+	 */
+	private static byte[] inflate(final ByteBuffer payload) throws DataFormatException {
+		final var inflater = new Inflater();
+		try {
+			inflater.setInput(payload.duplicate());
+
+			var output = new byte[Math.max(256, payload.remaining() * 4)];
+			int length = 0;
+			while (!inflater.finished()) {
+				if (length == output.length) {
+					output = Arrays.copyOf(output, output.length * 2);
+				}
+				final int read = inflater.inflate(output, length, output.length - length);
+				if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					// Truncated, or wants a dictionary the chunk doesn't carry.
+					return null;
+				}
+				length += read;
+			}
+
+			if (inflater.getRemaining() != 0) {
+				return null;
+			}
+			return Arrays.copyOf(output, length);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Compares as it deflates, stopping at the first difference.
+	 */
+	private static boolean deflatesTo(final byte[] raw, final int level, final ByteBuffer payload) {
+		final var deflater = new Deflater(level);
+		try {
+			deflater.setInput(raw);
+			deflater.finish();
+
+			final var buffer = new byte[8192];
+			int position = payload.position();
+			while (!deflater.finished()) {
+				final int length = deflater.deflate(buffer);
+				if (length > payload.limit() - position
+					|| !payload.slice(position, length).equals(ByteBuffer.wrap(buffer, 0, length))) {
+					return false;
+				}
+				position += length;
+			}
+			return position == payload.limit();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static byte[] deflate(final byte[] raw, final int level) {
+		final var deflater = new Deflater(level);
+		try {
+			deflater.setInput(raw);
+			deflater.finish();
+
+			final var output = new ByteArrayOutputStream(raw.length / 4 + 64);
+			final var buffer = new byte[8192];
+			while (!deflater.finished()) {
+				output.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return output.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * @param flags The second byte of a zlib stream, whose top two bits say roughly what level made it.
+	 * @return The levels that could've made it, most likely first.
+	 */
+	private static int[] levels(final byte flags) {
+		return switch ((flags & 0xFF) >>> 6) {
+			case 0 -> new int[]{1};
+			case 1 -> new int[]{5, 4, 3, 2};
+			case 2 -> new int[]{6};
+			default -> new int[]{9, 8, 7};
+		};
+	}
+
+	private static int location(final ByteBuffer header, final int index) {
+		return header.getInt(index * 4);
+	}
+
+	private static byte[] slice(final ByteBuffer buffer, final int offset, final int length) {
+		final var bytes = new byte[length];
+		buffer.get(buffer.position() + offset, bytes);
+		return bytes;
+	}
+
+	/**
+	 * @param region The restored region.
+	 * @param exact  Whether the region is byte for byte the original, else it's been laid out again.
+	 */
+	public record Restored(byte[] region, boolean exact) {
+	}
+
+	private record Extent(int start, int end) {
+	}
+
+	/**
+	 * @param form  Whether the data is the payload as is, or inflated.
+	 * @param level The deflate level to deflate inflated data back with.
+	 * @param crc32 The CRC32 of the original payload, to know whether deflating again gave it back.
+	 */
+	private record Transformed(int index, int type, byte form, int level, int crc32, byte[] data) {
+	}
+
+	private record Chunk(RegionReader.Chunk chunk, boolean exact) {
+	}
+}
@@ -0,0 +1,30 @@
+package gay.ampflower.worldpacker.mcregion;
+
+import gay.ampflower.worldpacker.Data;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Region file that's repacked again as it's written, rather than held onto repacked.
+ *
+ * @author Ampflower
+ * @see RegionReader#repack()
+ * @since ${version}
+ **/
+public record RepackedRegion(Path path) implements Data {
+	@Override
+	public byte[] toArray() throws IOException {
+		return new RegionReader(ByteBuffer.wrap(Files.readAllBytes(path))).repack();
+	}
+
+	@Override
+	public ReadableByteChannel openChannel() throws IOException {
+		return Channels.newChannel(new ByteArrayInputStream(toArray()));
+	}
+}
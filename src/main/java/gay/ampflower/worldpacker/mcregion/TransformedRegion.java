@@ -0,0 +1,38 @@
+package gay.ampflower.worldpacker.mcregion;
+
+import gay.ampflower.worldpacker.Data;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Region file that's transformed again as it's written, rather than held onto transformed.
+ * <p>
+ * Transforming inflates and deflates every chunk again, so this is only fallen back to where the region
+ * as transformed didn't fit in the input cache, or was evicted from it.
+ *
+ * @param repack Whether the region is repacked before being transformed.
+ * @author Ampflower
+ * @see RegionTransform#transform(ByteBuffer)
+ * @since ${version}
+ **/
+public record TransformedRegion(Path path, boolean repack) implements Data {
+	@Override
+	public byte[] toArray() throws IOException {
+		var bytes = Files.readAllBytes(path);
+		if (repack) {
+			bytes = new RegionReader(ByteBuffer.wrap(bytes)).repack();
+		}
+		return RegionTransform.transform(ByteBuffer.wrap(bytes));
+	}
+
+	@Override
+	public ReadableByteChannel openChannel() throws IOException {
+		return Channels.newChannel(new ByteArrayInputStream(toArray()));
+	}
+}
@@ -0,0 +1,35 @@
+package gay.ampflower.worldpacker.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Writing out the entire archive.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+@Name("gay.ampflower.worldpacker.Archive")
+@Label("Archive")
+@Category({"World Packer", "Write"})
+@Description("Writing the archive, from the first entry to the last.")
+public final class ArchiveEvent extends Event {
+	@Label("Format")
+	public String archive;
+
+	@Label("Files")
+	public int files;
+
+	@Label("Bytes Written")
+	@Description("Bytes written by the archiver, before any compression.")
+	@DataAmount
+	public long bytes;
+
+	@Label("Bytes Compressed")
+	@DataAmount
+	public long compressed;
+}
@@ -0,0 +1,32 @@
+package gay.ampflower.worldpacker.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A single file read in, from opening it to handing it off.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+@Name("gay.ampflower.worldpacker.FileRead")
+@Label("File Read")
+@Category({"World Packer", "Read"})
+@Description("A file read in and hashed by a reader job.")
+public final class FileReadEvent extends Event {
+	@Label("Path")
+	public String path;
+
+	@Label("Bytes Read")
+	@Description("Bytes read from disk, which is 0 when the hash cache had it.")
+	@DataAmount
+	public long bytes;
+
+	@Label("Digested")
+	@Description("Whether the file was digested, or only checksummed by staged dedup.")
+	public boolean digested;
+}
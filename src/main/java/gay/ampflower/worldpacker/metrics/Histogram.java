@@ -0,0 +1,80 @@
+package gay.ampflower.worldpacker.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations, bucketed by powers of two microseconds.
+ * <p>
+ * Bucket {@code i} holds everything up to {@code 2^i} microseconds, so percentiles are only ever as precise as
+ * a factor of two, which is plenty to tell a page cache hit from a disk seek.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+public final class Histogram {
+	private static final int buckets = 48;
+
+	private final AtomicLongArray counts = new AtomicLongArray(buckets);
+	private final LongAdder total = new LongAdder();
+	private final LongAdder count = new LongAdder();
+
+	public void record(final long nanos) {
+		final long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0L, nanos));
+		// Rounds up, so that each bucket is the upper bound of what's in it.
+		final int bucket = micros <= 1L ? 0 : 64 - Long.numberOfLeadingZeros(micros - 1L);
+		counts.incrementAndGet(Math.min(bucket, buckets - 1));
+		total.add(nanos);
+		count.increment();
+	}
+
+	public long count() {
+		return count.sum();
+	}
+
+	public long totalNanos() {
+		return total.sum();
+	}
+
+	/**
+	 * @param quantile From 0 to 1.
+	 * @return The upper bound of the bucket the quantile falls in, in microseconds, or 0 if empty.
+	 */
+	public long percentileMicros(final double quantile) {
+		long seen = 0L;
+		for (int i = 0; i < buckets; i++) {
+			seen += counts.get(i);
+		}
+		if (seen == 0L) {
+			return 0L;
+		}
+
+		final long target = (long) Math.ceil(seen * quantile);
+		long cumulative = 0L;
+		for (int i = 0; i < buckets; i++) {
+			cumulative += counts.get(i);
+			if (cumulative >= target && cumulative > 0L) {
+				return 1L << i;
+			}
+		}
+		return 1L << (buckets - 1);
+	}
+
+	void report(final Metrics metrics) {
+		metrics.put("count", count());
+		metrics.put("totalNanos", totalNanos());
+		metrics.put("p50Micros", percentileMicros(0.5D));
+		metrics.put("p90Micros", percentileMicros(0.9D));
+		metrics.put("p99Micros", percentileMicros(0.99D));
+		metrics.put("maxMicros", percentileMicros(1D));
+
+		final var bucketMetrics = metrics.object("upToMicros");
+		for (int i = 0; i < buckets; i++) {
+			final long n = counts.get(i);
+			if (n != 0L) {
+				bucketMetrics.put(Long.toString(1L << i), n);
+			}
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package gay.ampflower.worldpacker.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Time spent waiting on the job limiter for room to start another reader job.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+@Name("gay.ampflower.worldpacker.JobWait")
+@Label("Job Wait")
+@Category({"World Packer", "Read"})
+@Description("Waiting for room under the job limit to start another reader job.")
+public final class JobWaitEvent extends Event {
+	@Label("Limit")
+	public int limit;
+}
@@ -0,0 +1,119 @@
+package gay.ampflower.worldpacker.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A summary of a run, gathered from every phase once it's done and written out as JSON for {@code --metrics}.
+ * <p>
+ * Each phase reports into its own object, keyed in the order reported. While running, the same phases emit
+ * JFR events under the {@code World Packer} category, which may be recorded with
+ * {@code -XX:StartFlightRecording}.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+public final class Metrics {
+	private final Map<String, Object> values = new LinkedHashMap<>();
+
+	/**
+	 * @return The object under the given key, made if it's not there yet.
+	 */
+	public Metrics object(final String key) {
+		return (Metrics) values.computeIfAbsent(key, $ -> new Metrics());
+	}
+
+	public void put(final String key, final long value) {
+		values.put(key, value);
+	}
+
+	public void put(final String key, final double value) {
+		values.put(key, Double.isFinite(value) ? value : 0D);
+	}
+
+	public void put(final String key, final boolean value) {
+		values.put(key, value);
+	}
+
+	public void put(final String key, final String value) {
+		values.put(key, value);
+	}
+
+	public void put(final String key, final Metrics value) {
+		values.put(key, value);
+	}
+
+	public void put(final String key, final Histogram value) {
+		value.report(object(key));
+	}
+
+	/**
+	 * @return Bytes over nanoseconds, as MiB per second.
+	 */
+	public static double mibPerSecond(final long bytes, final long nanos) {
+		return nanos == 0L ? 0D : bytes * 1_000_000_000D / nanos / (1024 * 1024);
+	}
+
+	public void write(final Path file) throws IOException {
+		try (final var writer = Files.newBufferedWriter(file)) {
+			write(writer, 0);
+			writer.write('\n');
+		}
+	}
+
+	private void write(final Writer writer, final int depth) throws IOException {
+		writer.write('{');
+		boolean first = true;
+		for (final var e : values.entrySet()) {
+			if (!first) {
+				writer.write(',');
+			}
+			first = false;
+
+			writer.write('\n');
+			writer.write("\t".repeat(depth + 1));
+			writeString(writer, e.getKey());
+			writer.write(": ");
+
+			final var value = e.getValue();
+			if (value instanceof Metrics metrics) {
+				metrics.write(writer, depth + 1);
+			} else if (value instanceof String string) {
+				writeString(writer, string);
+			} else {
+				writer.write(String.valueOf(value));
+			}
+		}
+		if (!first) {
+			writer.write('\n');
+			writer.write("\t".repeat(depth));
+		}
+		writer.write('}');
+	}
+
+	private static void writeString(final Writer writer, final String string) throws IOException {
+		writer.write('"');
+		for (int i = 0; i < string.length(); i++) {
+			final char c = string.charAt(i);
+			switch (c) {
+				case '"' -> writer.write("\\\"");
+				case '\\' -> writer.write("\\\\");
+				case '\n' -> writer.write("\\n");
+				case '\r' -> writer.write("\\r");
+				case '\t' -> writer.write("\\t");
+				default -> {
+					if (c < 0x20) {
+						writer.write(String.format("\\u%04x", (int) c));
+					} else {
+						writer.write(c);
+					}
+				}
+			}
+		}
+		writer.write('"');
+	}
+}
@@ -0,0 +1,23 @@
+package gay.ampflower.worldpacker.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Either side of the streaming hand-off waiting on the other.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+@Name("gay.ampflower.worldpacker.QueueStall")
+@Label("Queue Stall")
+@Category({"World Packer", "Stream"})
+@Description("A reader waiting on a full queue, or the writer waiting on an empty one.")
+public final class QueueStallEvent extends Event {
+	@Label("Writer")
+	@Description("Whether it was the writer waiting for files, else a reader waiting for room.")
+	public boolean writer;
+}
@@ -0,0 +1,25 @@
+package gay.ampflower.worldpacker.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A walk of the input, which includes any time spent blocked handing files off to the readers.
+ *
+ * @author Ampflower
+ * @since ${version}
+ **/
+@Name("gay.ampflower.worldpacker.Walk")
+@Label("Walk")
+@Category({"World Packer", "Read"})
+@Description("A walk over the entire input.")
+public final class WalkEvent extends Event {
+	@Label("Root")
+	public String root;
+
+	@Label("Entries")
+	public long entries;
+}